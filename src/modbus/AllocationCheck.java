@@ -0,0 +1,74 @@
+package modbus;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Verifies that the *Direct read and write methods allocate nothing per
+ * transaction once warmed up. Each operation runs against a
+ * ModbusServerSimulator until the JIT has settled, then is measured with the
+ * JVM's per-thread allocation counter; any operation averaging a byte or
+ * more per call fails the check with exit status 1.
+ *
+ * Usage: java modbus.AllocationCheck [callsPerOperation]
+ *        ant check
+ */
+public class AllocationCheck {
+
+    private static final int WARMUP_CALLS = 20_000;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private interface Operation {
+        void run() throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int calls = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        ModbusLog.setLevel(ModbusLogger.Level.WARN);
+
+        boolean failed = false;
+        try (ModbusServerSimulator simulator = new ModbusServerSimulator(0)) {
+            ModbusTCP client = new ModbusTCP();
+            client.connect("127.0.0.1", simulator.getPort());
+            int[] registers = new int[ModbusTCP.MAX_READ_REGISTERS];
+            boolean[] coils = new boolean[ModbusTCP.MAX_READ_COILS];
+            long[] bitmap = new long[(ModbusTCP.MAX_READ_COILS + 63) / 64];
+            int registerBase = ModbusTCP.plcAddressToModbus("D0");
+            // M1536 upward is one linear window, wide enough for a maximum-size coil read.
+            int coilBase = ModbusTCP.plcAddressToModbus("M1536");
+
+            System.out.printf("%-36s %10s%n", "operation", "B/call");
+            failed |= check("readHoldingRegistersDirect(125)", calls,
+                    () -> client.readHoldingRegistersDirect(1, registerBase, registers.length, registers, 0));
+            failed |= check("readCoilsDirect(2000, boolean[])", calls,
+                    () -> client.readCoilsDirect(1, coilBase, coils.length, coils, 0));
+            failed |= check("readCoilsDirect(2000, long[])", calls,
+                    () -> client.readCoilsDirect(1, coilBase, ModbusTCP.MAX_READ_COILS, bitmap));
+            failed |= check("writeSingleRegisterDirect", calls,
+                    () -> client.writeSingleRegisterDirect(1, registerBase, 1234));
+            failed |= check("writeSingleCoilDirect", calls,
+                    () -> client.writeSingleCoilDirect(1, coilBase, true));
+            client.disconnect();
+        }
+        if (failed) {
+            System.out.println("FAILED: the Direct path allocates in steady state");
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+
+    private static boolean check(String name, int calls, Operation operation) throws Exception {
+        for (int i = 0; i < WARMUP_CALLS; i++) {
+            operation.run();
+        }
+        long before = THREADS.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < calls; i++) {
+            operation.run();
+        }
+        long allocated = THREADS.getCurrentThreadAllocatedBytes() - before;
+        double perCall = allocated / (double) calls;
+        System.out.printf("%-36s %10.3f%s%n", name, perCall, perCall >= 1 ? "  <-- allocates" : "");
+        return perCall >= 1;
+    }
+}
@@ -0,0 +1,97 @@
+package modbus;
+
+import java.util.concurrent.*;
+
+/**
+ * Fires 10,000 concurrent readHoldingRegistersAsync / readCoilsAsync calls
+ * from one ModbusTCP.withVirtualThreads() client against a
+ * ModbusServerSimulator, once serially (depth 1) and once pipelined
+ * (depth 64), and checks that every future completes with the values seeded
+ * into the simulator. Exits with status 1 on the first mismatch or failure.
+ *
+ * Usage: java modbus.AsyncReadCheck [reads]
+ *        ant check
+ */
+public class AsyncReadCheck {
+
+    private static final int[] DEPTHS = { 1, 64 };
+    private static final int REGISTERS = 1000;
+    private static final int QUANTITY = 8;
+
+    public static void main(String[] args) throws Exception {
+        int reads = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        ModbusLog.setLevel(ModbusLogger.Level.WARN);
+
+        try (ModbusServerSimulator simulator = new ModbusServerSimulator(0)) {
+            for (int i = 0; i < REGISTERS + QUANTITY; i++) {
+                simulator.setRegister("D" + i, expectedRegister(i));
+                simulator.setCoil("M" + i, expectedCoil(i));
+            }
+            for (int depth : DEPTHS) {
+                String failure = run(simulator.getPort(), depth, reads);
+                if (failure != null) {
+                    System.out.println("FAILED at depth " + depth + ": " + failure);
+                    System.exit(1);
+                }
+            }
+        }
+        System.out.println("OK");
+    }
+
+    private static String run(int port, int depth, int reads) throws Exception {
+        ModbusTCP client = ModbusTCP.withVirtualThreads();
+        client.setPipelineDepth(depth);
+        client.setTimeout(30_000);
+        client.connect("127.0.0.1", port);
+        try {
+            long start = System.nanoTime();
+            CompletableFuture<?>[] futures = new CompletableFuture<?>[reads];
+            for (int i = 0; i < reads; i++) {
+                int first = i % REGISTERS;
+                futures[i] = i % 4 == 3 ? client.readCoilsAsync(1, "M" + first, QUANTITY)
+                        : client.readHoldingRegistersAsync(1, "D" + first, QUANTITY);
+            }
+            for (int i = 0; i < reads; i++) {
+                String mismatch = verify(futures[i], i % REGISTERS);
+                if (mismatch != null) {
+                    return "read " + i + ": " + mismatch;
+                }
+            }
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            System.out.printf("depth %2d: %d concurrent reads verified in %d ms%n", depth, reads, elapsedMillis);
+            return null;
+        } finally {
+            client.disconnect();
+        }
+    }
+
+    private static String verify(CompletableFuture<?> future, int first) throws InterruptedException {
+        Object values;
+        try {
+            values = future.get(60, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            return "failed with " + e.getCause();
+        } catch (TimeoutException e) {
+            return "did not complete within 60 s";
+        }
+        for (int k = 0; k < QUANTITY; k++) {
+            if (values instanceof int[]) {
+                int actual = ((int[]) values)[k];
+                if (actual != expectedRegister(first + k)) {
+                    return "D" + (first + k) + " = " + actual + ", expected " + expectedRegister(first + k);
+                }
+            } else if (((boolean[]) values)[k] != expectedCoil(first + k)) {
+                return "M" + (first + k) + " = " + ((boolean[]) values)[k] + ", expected " + expectedCoil(first + k);
+            }
+        }
+        return null;
+    }
+
+    private static int expectedRegister(int offset) {
+        return (offset * 31 + 7) & 0xFFFF;
+    }
+
+    private static boolean expectedCoil(int offset) {
+        return offset % 3 == 0;
+    }
+}
@@ -0,0 +1,77 @@
+package modbus;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures sustained throughput through a ModbusGateway that fans 8, 32 and
+ * 128 inbound clients into two upstream connections to a ModbusServerSimulator
+ * with a fixed per-request delay. Every client polls one of a handful of hot
+ * register ranges, as a room full of HMIs showing the same screens would, so
+ * the report also shows how many reads the gateway deduplicated.
+ *
+ * Usage: java modbus.GatewayBenchmark [delayMillis] [secondsPerRun]
+ */
+public class GatewayBenchmark {
+
+    private static final int[] CLIENTS = { 8, 32, 128 };
+    private static final int UPSTREAM_CONNECTIONS = 2;
+    private static final int HOT_RANGES = 4;
+
+    public static void main(String[] args) throws Exception {
+        int delayMillis = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        try (ModbusServerSimulator simulator = new ModbusServerSimulator(0)) {
+            simulator.setLatency(delayMillis, 0);
+            System.out.println("Gateway benchmark: " + delayMillis + " ms server delay, " + UPSTREAM_CONNECTIONS
+                    + " upstream connections, " + seconds + " s per run");
+            System.out.println("clients      ops/s   upstream/s   dedup%  errors  plc sockets");
+            for (int clients : CLIENTS) {
+                run(simulator, clients, seconds);
+            }
+        }
+    }
+
+    private static void run(ModbusServerSimulator simulator, int clients, int seconds) throws Exception {
+        try (ModbusGateway gateway = new ModbusGateway(0, "127.0.0.1", simulator.getPort(), UPSTREAM_CONNECTIONS,
+                64, 5000)) {
+            ModbusTCP[] connections = new ModbusTCP[clients];
+            for (int i = 0; i < clients; i++) {
+                connections[i] = new ModbusTCP();
+                connections[i].connect("127.0.0.1", gateway.getPort());
+            }
+
+            AtomicLong completed = new AtomicLong();
+            AtomicLong errors = new AtomicLong();
+            long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+            ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor();
+            for (int i = 0; i < clients; i++) {
+                ModbusTCP client = connections[i];
+                String range = "D" + (100 * (i % HOT_RANGES));
+                workers.submit(() -> {
+                    while (System.nanoTime() < end) {
+                        try {
+                            client.readHoldingRegisters(1, range, 10);
+                            completed.incrementAndGet();
+                        } catch (Exception e) {
+                            errors.incrementAndGet();
+                        }
+                    }
+                });
+            }
+            Thread.sleep(TimeUnit.SECONDS.toMillis(seconds) / 2);
+            int plcSockets = simulator.getClientCount();
+            workers.shutdown();
+            workers.awaitTermination(seconds + 30L, TimeUnit.SECONDS);
+            for (ModbusTCP client : connections) {
+                client.disconnect();
+            }
+
+            double dedupPercent = 100.0 * gateway.getDeduplicatedReadCount()
+                    / Math.max(1, gateway.getInboundRequestCount());
+            System.out.printf("%7d %10.0f %12.0f %8.1f %7d %12d%n", clients, completed.get() / (double) seconds,
+                    gateway.getUpstreamRequestCount() / (double) seconds, dedupPercent, errors.get(), plcSockets);
+        }
+    }
+}
@@ -1,8 +1,15 @@
 package modbus;
 
 import java.io.IOException;
+import java.io.Reader;
 import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.InputMismatchException;
+import java.util.Properties;
 import java.util.Scanner;
 
 import modbus.ModbusException;
@@ -16,6 +23,9 @@ public class InteractiveTestModbusTCP {
     private static int lastPort = 502;
 
     public static void main(String[] args) {
+        if (args.length > 0) {
+            System.exit(runHeadless(args));
+        }
         System.out.println("Interactive Modbus TCP Client Test (PLC Addresses)");
         System.out.println("=================================================");
 
@@ -163,8 +173,11 @@ public class InteractiveTestModbusTCP {
         int quantity = quantityStr.isEmpty() ? 8 : Integer.parseInt(quantityStr);
 
         boolean[] values = client.readCoils(unitId, startAddrStr, quantity);
+        printCoils(startAddrStr, values);
+    }
 
-        System.out.println("Read Coils Result (" + quantity + " coils starting at " + startAddrStr + "):");
+    private static void printCoils(String startAddrStr, boolean[] values) {
+        System.out.println("Read Coils Result (" + values.length + " coils starting at " + startAddrStr + "):");
         System.out.print("  [");
         for (int i = 0; i < values.length; i++) {
             System.out.print(values[i] ? "1" : "0");
@@ -192,8 +205,12 @@ public class InteractiveTestModbusTCP {
         int quantity = quantityStr.isEmpty() ? 2 : Integer.parseInt(quantityStr);
 
         int[] values = client.readHoldingRegisters(unitId, startAddrStr, quantity);
+        printRegisters(startAddrStr, values);
+    }
 
-        System.out.println("Read Registers Result (" + quantity + " registers starting at " + startAddrStr + "):");
+    private static void printRegisters(String startAddrStr, int[] values) {
+        System.out.println("Read Registers Result (" + values.length + " registers starting at " + startAddrStr
+                + "):");
         for (int i = 0; i < values.length; i++) {
             System.out.printf("  Offset %d: %d (0x%04X)\n", i, values[i], values[i]);
         }
@@ -243,6 +260,158 @@ public class InteractiveTestModbusTCP {
                 + value + ".");
     }
 
+    // --- Headless Mode ---
+
+    /*
+     * Note:
+     * Any argument switches to a non-interactive run that exits with 0 when
+     * nothing failed, 1 on errors and 2 on bad usage:
+     *
+     *   --load [workload.properties] [key=value ...]
+     *       runs ModbusLoadGenerator; key=value pairs override the file
+     *   --script commands.txt
+     *       one command per line, # for comments:
+     *         connect host port [timeoutMs]     disconnect
+     *         read-coils unit address quantity  read-registers unit address quantity
+     *         write-coil unit address 0|1       write-register unit address value
+     *         sleep millis                      load key=value ... (against the last connect target)
+     */
+    private static int runHeadless(String[] args) {
+        try {
+            switch (args[0]) {
+                case "--load":
+                    return runLoad(new ModbusLoadGenerator(), Arrays.copyOfRange(args, 1, args.length));
+                case "--script":
+                    if (args.length != 2) {
+                        break;
+                    }
+                    return runScript(Paths.get(args[1]));
+                default:
+                    break;
+            }
+        } catch (IOException ioe) {
+            handleIoError(ioe);
+            return 1;
+        } catch (IllegalArgumentException iae) {
+            handleInputError(iae.getMessage());
+            return 2;
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return 1;
+        }
+        System.err.println("Usage: java modbus.InteractiveTestModbusTCP [--load [workload.properties] [key=value ...]"
+                + " | --script commands.txt]");
+        return 2;
+    }
+
+    private static int runLoad(ModbusLoadGenerator generator, String[] options)
+            throws IOException, InterruptedException {
+        for (String option : options) {
+            int equals = option.indexOf('=');
+            if (equals > 0) {
+                generator.configure(option.substring(0, equals), option.substring(equals + 1));
+                continue;
+            }
+            Properties workload = new Properties();
+            try (Reader reader = Files.newBufferedReader(Paths.get(option), StandardCharsets.UTF_8)) {
+                workload.load(reader);
+            }
+            generator.configure(workload);
+        }
+        System.out.println("Load: " + generator.describe());
+        ModbusLoadGenerator.Result result = generator.run();
+        System.out.print(result.format());
+        return result.getErrorCount() == 0 ? 0 : 1;
+    }
+
+    private static int runScript(Path script) throws IOException, InterruptedException {
+        int failures = 0;
+        int lineNumber = 0;
+        for (String line : Files.readAllLines(script, StandardCharsets.UTF_8)) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            System.out.println("> " + line);
+            try {
+                if (!runScriptCommand(line.split("\\s+"))) {
+                    failures++;
+                }
+            } catch (ModbusException me) {
+                handleModbusError(me);
+                failures++;
+            } catch (IOException ioe) {
+                handleIoError(ioe);
+                failures++;
+            } catch (IllegalArgumentException iae) {
+                handleInputError("Line " + lineNumber + ": " + iae.getMessage());
+                failures++;
+            }
+            // Keep library log lines next to the command that produced them.
+            ModbusLog.flush();
+        }
+        if (client.isConnected()) {
+            client.disconnect();
+        }
+        ModbusLog.flush();
+        System.out.println(failures == 0 ? "Script completed." : "Script completed with " + failures + " failure(s).");
+        return failures == 0 ? 0 : 1;
+    }
+
+    // Returns false if the command ran but reported errors (a load run with failed requests).
+    private static boolean runScriptCommand(String[] words) throws IOException, InterruptedException {
+        switch (words[0]) {
+            case "connect":
+                if (client.isConnected()) {
+                    client.disconnect();
+                }
+                lastIp = argument(words, 1, "host");
+                lastPort = Integer.parseInt(argument(words, 2, "port"));
+                client.setTimeout(words.length > 3 ? Integer.parseInt(words[3]) : 3000);
+                client.connect(lastIp, lastPort);
+                return true;
+            case "disconnect":
+                disconnectFromServer();
+                return true;
+            case "read-coils":
+                printCoils(argument(words, 2, "address"), client.readCoils(Integer.parseInt(argument(words, 1, "unit")),
+                        words[2], Integer.parseInt(argument(words, 3, "quantity"))));
+                return true;
+            case "read-registers":
+                printRegisters(argument(words, 2, "address"), client.readHoldingRegisters(
+                        Integer.parseInt(argument(words, 1, "unit")), words[2],
+                        Integer.parseInt(argument(words, 3, "quantity"))));
+                return true;
+            case "write-coil":
+                client.writeSingleCoil(Integer.parseInt(argument(words, 1, "unit")), argument(words, 2, "address"),
+                        Integer.parseInt(argument(words, 3, "value")) != 0);
+                System.out.println("Wrote " + words[3] + " to " + words[2] + ".");
+                return true;
+            case "write-register":
+                client.writeSingleRegister(Integer.parseInt(argument(words, 1, "unit")), argument(words, 2, "address"),
+                        Integer.parseInt(argument(words, 3, "value")));
+                System.out.println("Wrote " + words[3] + " to " + words[2] + ".");
+                return true;
+            case "sleep":
+                Thread.sleep(Long.parseLong(argument(words, 1, "millis")));
+                return true;
+            case "load":
+                ModbusLoadGenerator generator = new ModbusLoadGenerator();
+                generator.setTarget(lastIp, lastPort);
+                return runLoad(generator, Arrays.copyOfRange(words, 1, words.length)) == 0;
+            default:
+                throw new IllegalArgumentException("Unknown command: " + words[0]);
+        }
+    }
+
+    private static String argument(String[] words, int index, String name) {
+        if (index >= words.length) {
+            throw new IllegalArgumentException(words[0] + ": missing " + name);
+        }
+        return words[index];
+    }
+
     // --- Error Handling Helper Methods ---
 
     private static void handleModbusError(ModbusException me) {
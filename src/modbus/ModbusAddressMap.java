@@ -0,0 +1,263 @@
+package modbus;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * ============================================================================
+ * Modbus Address Map - Readable PLC Address Ranges, as Found by the Scanner
+ * ============================================================================
+ * A sorted, merged set of ranges such as D0-D999 or M0-M1535, written one
+ * per line as text (a single address is written alone, e.g. D1200). Lines
+ * starting with # are comments. ModbusAddressScanner produces it; consumers:
+ *
+ *   ModbusReadPlanner.setAddressMap()  never merges tags across a hole
+ *   plcAddresses()                     every readable address, for
+ *                                      ModbusPoller.addGroup()
+ *   writeTagCsv()                      name,plcAddress lines for
+ *                                      ModbusTagRegistry.loadCsv()
+ *
+ * M ranges are coils; D, T and C ranges are holding registers, as in
+ * ModbusReadPlanner. Queries in Modbus address space go through an index
+ * built with plcAddressToModbus, so T and C, which share register space
+ * with D, are answered consistently.
+ */
+public class ModbusAddressMap {
+
+    public static final class Range {
+        private final char area;
+        private final int firstOffset;
+        private final int lastOffset;
+
+        public Range(char area, int firstOffset, int lastOffset) {
+            if (firstOffset < 0 || lastOffset < firstOffset) {
+                throw new IllegalArgumentException("Invalid range " + area + firstOffset + "-" + area + lastOffset);
+            }
+            this.area = Character.toUpperCase(area);
+            this.firstOffset = firstOffset;
+            this.lastOffset = lastOffset;
+        }
+
+        public char getArea() {
+            return area;
+        }
+
+        public int getFirstOffset() {
+            return firstOffset;
+        }
+
+        public int getLastOffset() {
+            return lastOffset;
+        }
+
+        public int size() {
+            return lastOffset - firstOffset + 1;
+        }
+
+        public boolean isCoil() {
+            return area == 'M';
+        }
+
+        @Override
+        public String toString() {
+            return firstOffset == lastOffset ? area + Integer.toString(firstOffset)
+                    : area + Integer.toString(firstOffset) + "-" + area + lastOffset;
+        }
+    }
+
+    private final List<Range> ranges;
+    // Readable Modbus spans, start -> end inclusive, merged.
+    private final TreeMap<Integer, Integer> coilIndex = new TreeMap<>();
+    private final TreeMap<Integer, Integer> registerIndex = new TreeMap<>();
+
+    public ModbusAddressMap(Collection<Range> readable) {
+        this.ranges = Collections.unmodifiableList(merge(readable));
+        for (Range range : ranges) {
+            index(range);
+        }
+    }
+
+    // Sorts by area and offset, then joins ranges that touch or overlap.
+    private static List<Range> merge(Collection<Range> readable) {
+        List<Range> sorted = new ArrayList<>(readable);
+        sorted.sort(Comparator.comparingInt(Range::getArea).thenComparingInt(Range::getFirstOffset));
+        List<Range> merged = new ArrayList<>();
+        Range current = null;
+        for (Range range : sorted) {
+            if (current != null && current.area == range.area && range.firstOffset <= current.lastOffset + 1) {
+                current = new Range(current.area, current.firstOffset, Math.max(current.lastOffset, range.lastOffset));
+            } else {
+                if (current != null) {
+                    merged.add(current);
+                }
+                current = range;
+            }
+        }
+        if (current != null) {
+            merged.add(current);
+        }
+        return merged;
+    }
+
+    // Offsets map linearly except at jumps such as M1535 -> M1536; each linear run is one span.
+    private void index(Range range) {
+        TreeMap<Integer, Integer> target = range.isCoil() ? coilIndex : registerIndex;
+        int spanStart = -1;
+        int previous = -2;
+        for (int offset = range.firstOffset; offset <= range.lastOffset; offset++) {
+            int address = ModbusTCP.plcAddressToModbus(range.area + Integer.toString(offset));
+            if (address != previous + 1) {
+                if (spanStart >= 0) {
+                    addSpan(target, spanStart, previous);
+                }
+                spanStart = address;
+            }
+            previous = address;
+        }
+        addSpan(target, spanStart, previous);
+    }
+
+    private static void addSpan(TreeMap<Integer, Integer> target, int start, int end) {
+        Map.Entry<Integer, Integer> before = target.floorEntry(start);
+        if (before != null && before.getValue() >= start - 1) {
+            start = before.getKey();
+            end = Math.max(end, before.getValue());
+            target.remove(before.getKey());
+        }
+        Map.Entry<Integer, Integer> after;
+        while ((after = target.ceilingEntry(start)) != null && after.getKey() <= end + 1) {
+            end = Math.max(end, after.getValue());
+            target.remove(after.getKey());
+        }
+        target.put(start, end);
+    }
+
+    // ========================================================================
+    // Section: Queries
+    // ========================================================================
+
+    public List<Range> getRanges() {
+        return ranges;
+    }
+
+    public boolean isReadable(String plcAddress) {
+        return isReadable(ModbusReadPlanner.isCoilArea(plcAddress), ModbusTCP.plcAddressToModbus(plcAddress), 1);
+    }
+
+    // True when one FC01 (coils) or FC03 read of quantity from startAddress would touch only readable addresses.
+    public boolean isReadable(boolean coils, int startAddress, int quantity) {
+        Map.Entry<Integer, Integer> span = (coils ? coilIndex : registerIndex).floorEntry(startAddress);
+        return span != null && span.getValue() >= startAddress + quantity - 1;
+    }
+
+    public int getAddressCount() {
+        int count = 0;
+        for (Range range : ranges) {
+            count += range.size();
+        }
+        return count;
+    }
+
+    // Every readable address, in map order.
+    public List<String> plcAddresses() {
+        List<String> addresses = new ArrayList<>(getAddressCount());
+        for (Range range : ranges) {
+            for (int offset = range.firstOffset; offset <= range.lastOffset; offset++) {
+                addresses.add(range.area + Integer.toString(offset));
+            }
+        }
+        return addresses;
+    }
+
+    // --- End of Queries Section ---
+
+    // ========================================================================
+    // Section: Text Format
+    // ========================================================================
+
+    public void write(Writer target, String header) throws IOException {
+        BufferedWriter writer = new BufferedWriter(target);
+        if (header != null) {
+            for (String line : header.split("\n")) {
+                writer.write("# ");
+                writer.write(line);
+                writer.newLine();
+            }
+        }
+        for (Range range : ranges) {
+            writer.write(range.toString());
+            writer.newLine();
+        }
+        writer.flush();
+    }
+
+    public void save(Path file, String header) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            write(writer, header);
+        }
+    }
+
+    // One tag per readable address, named after it, in the format ModbusTagRegistry.loadCsv() reads.
+    public void writeTagCsv(Writer target) throws IOException {
+        BufferedWriter writer = new BufferedWriter(target);
+        writer.write("name,plcAddress");
+        writer.newLine();
+        for (String address : plcAddresses()) {
+            writer.write(address);
+            writer.write(',');
+            writer.write(address);
+            writer.newLine();
+        }
+        writer.flush();
+    }
+
+    public static ModbusAddressMap load(Path file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return parse(reader);
+        }
+    }
+
+    public static ModbusAddressMap parse(Reader source) throws IOException {
+        BufferedReader reader = source instanceof BufferedReader
+                ? (BufferedReader) source
+                : new BufferedReader(source);
+        List<Range> ranges = new ArrayList<>();
+        int lineNumber = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            try {
+                ranges.add(parseRange(line));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Line " + lineNumber + ": " + e.getMessage(), e);
+            }
+        }
+        return new ModbusAddressMap(ranges);
+    }
+
+    // "D100-D199", "D100-199" or "D100"; both ends must be valid addresses of the same area.
+    static Range parseRange(String text) {
+        int dash = text.indexOf('-', 2);
+        String first = dash < 0 ? text : text.substring(0, dash).trim();
+        String last = dash < 0 ? text : text.substring(dash + 1).trim();
+        if (!last.isEmpty() && Character.isDigit(last.charAt(0))) {
+            last = first.charAt(0) + last;
+        }
+        ModbusTCP.plcAddressToModbus(first);
+        ModbusTCP.plcAddressToModbus(last);
+        char area = Character.toUpperCase(first.charAt(0));
+        if (Character.toUpperCase(last.charAt(0)) != area) {
+            throw new IllegalArgumentException("Range spans two areas: " + text);
+        }
+        return new Range(area, Integer.parseInt(first.substring(1)), Integer.parseInt(last.substring(1)));
+    }
+
+    // --- End of Text Format Section ---
+}
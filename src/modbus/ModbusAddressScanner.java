@@ -0,0 +1,441 @@
+package modbus;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * ============================================================================
+ * Modbus Address Scanner - Finds the Readable PLC Address Ranges of a Device
+ * ============================================================================
+ * Probes each area with the largest reads the protocol allows (2000 coils or
+ * 125 registers); a fully readable block costs one probe. A block answered
+ * with Illegal Data Address (0x02), or with Illegal Data Value (0x03) for a
+ * quantity the device will not serve, is resolved address by address, and
+ * every boundary between readable and unreadable addresses is found by
+ * binary search in about log2(block size) probes. Unreadable stretches cost
+ * one probe per address, or one per resolution addresses when coarser.
+ *
+ * Probes run in parallel across the connections of a ModbusConnectionPool
+ * device, paced to a configurable rate so a commissioning scan does not
+ * load a running PLC. Timeouts and other failures are retried; ranges that
+ * still fail are reported as unresolved rather than unreadable. The result
+ * is a ModbusAddressMap.
+ *
+ * Default areas, as mapped by plcAddressToModbus: M0-M8191 (coils),
+ * D0-D9999, T0-T255 and C0-C255 (registers).
+ *
+ * Usage: java modbus.ModbusAddressScanner host[:port]|simulator [--unit N]
+ *        [--connections N] [--rate probes/s] [--resolution N]
+ *        [--areas D0-D9999,M0-M8191] [--out map.txt] [--csv tags.csv]
+ */
+public class ModbusAddressScanner {
+
+    private static final int RETRY_BACKOFF_MILLIS = 100;
+
+    private final ModbusConnectionPool.Device device;
+    private final List<ModbusAddressMap.Range> areas = new ArrayList<>();
+    private int parallelism = 4;
+    private double probesPerSecond = 0;
+    private int resolution = 1;
+    private int retries = 2;
+
+    // --- Scan State ---
+    private final ConcurrentLinkedQueue<ModbusAddressMap.Range> readable = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<String> unresolved = new ConcurrentLinkedQueue<>();
+    private final AtomicLong probes = new AtomicLong();
+    private final AtomicLong nextProbeNanos = new AtomicLong();
+
+    public ModbusAddressScanner(ModbusConnectionPool.Device device) {
+        this.device = device;
+    }
+
+    // ========================================================================
+    // Section: Configuration
+    // ========================================================================
+
+    // Probes in flight at once; no use beyond the pool's connections per device unless it pipelines.
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1, but was " + parallelism);
+        }
+        this.parallelism = parallelism;
+    }
+
+    // 0 for no limit.
+    public void setRate(double probesPerSecond) {
+        if (probesPerSecond < 0) {
+            throw new IllegalArgumentException("Probe rate cannot be negative");
+        }
+        this.probesPerSecond = probesPerSecond;
+    }
+
+    /*
+     * Note:
+     * Step between single-address probes through unreadable addresses. 1
+     * gives an exact map. A larger value saves probes in wide unreadable
+     * areas, but may miss readable islands shorter than itself.
+     */
+    public void setResolution(int addresses) {
+        if (addresses < 1) {
+            throw new IllegalArgumentException("Resolution must be at least 1, but was " + addresses);
+        }
+        this.resolution = addresses;
+    }
+
+    public void setRetries(int retries) {
+        if (retries < 0) {
+            throw new IllegalArgumentException("Retries cannot be negative");
+        }
+        this.retries = retries;
+    }
+
+    public void addArea(String plcRange) {
+        areas.add(ModbusAddressMap.parseRange(plcRange));
+    }
+
+    private List<ModbusAddressMap.Range> areasToScan() {
+        if (!areas.isEmpty()) {
+            return areas;
+        }
+        List<ModbusAddressMap.Range> defaults = new ArrayList<>();
+        defaults.add(new ModbusAddressMap.Range('M', 0, 8191));
+        defaults.add(new ModbusAddressMap.Range('D', 0, 9999));
+        defaults.add(new ModbusAddressMap.Range('T', 0, 255));
+        defaults.add(new ModbusAddressMap.Range('C', 0, 255));
+        return defaults;
+    }
+
+    // --- End of Configuration Section ---
+
+    // ========================================================================
+    // Section: Scan
+    // ========================================================================
+
+    // A run of PLC offsets that maps to consecutive Modbus addresses, so one read can cover any part of it.
+    private static final class Window {
+        final char area;
+        final int firstOffset;
+        final int baseAddress;
+        final int count;
+        final boolean coils;
+
+        Window(char area, int firstOffset, int baseAddress, int count) {
+            this.area = area;
+            this.firstOffset = firstOffset;
+            this.baseAddress = baseAddress;
+            this.count = count;
+            this.coils = area == 'M';
+        }
+
+        ModbusAddressMap.Range range(int index, int quantity) {
+            return new ModbusAddressMap.Range(area, firstOffset + index, firstOffset + index + quantity - 1);
+        }
+    }
+
+    static List<Window> windows(ModbusAddressMap.Range area) {
+        List<Window> windows = new ArrayList<>();
+        int runOffset = -1;
+        int runAddress = -1;
+        int runCount = 0;
+        for (int offset = area.getFirstOffset(); offset <= area.getLastOffset(); offset++) {
+            int address;
+            try {
+                address = ModbusTCP.plcAddressToModbus(area.getArea() + Integer.toString(offset));
+            } catch (IllegalArgumentException e) {
+                address = -1;
+            }
+            boolean valid = address >= 0 && address <= 0xFFFF;
+            if (runCount > 0 && (!valid || address != runAddress + runCount)) {
+                windows.add(new Window(area.getArea(), runOffset, runAddress, runCount));
+                runCount = 0;
+            }
+            if (valid) {
+                if (runCount == 0) {
+                    runOffset = offset;
+                    runAddress = address;
+                }
+                runCount++;
+            }
+        }
+        if (runCount > 0) {
+            windows.add(new Window(area.getArea(), runOffset, runAddress, runCount));
+        }
+        return windows;
+    }
+
+    public ModbusAddressMap scan() throws IOException {
+        readable.clear();
+        unresolved.clear();
+        probes.set(0);
+        nextProbeNanos.set(System.nanoTime());
+
+        Semaphore permits = new Semaphore(parallelism);
+        try (ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (ModbusAddressMap.Range area : areasToScan()) {
+                for (Window window : windows(area)) {
+                    int maxQuantity = window.coils ? ModbusTCP.MAX_READ_COILS : ModbusTCP.MAX_READ_REGISTERS;
+                    for (int index = 0; index < window.count; index += maxQuantity) {
+                        int start = index;
+                        int end = Math.min(window.count, index + maxQuantity);
+                        workers.execute(() -> scanBlock(permits, window, start, end));
+                    }
+                }
+            }
+        }
+        return new ModbusAddressMap(readable);
+    }
+
+    // One large read; only a block that fails needs resolveBlock().
+    private void scanBlock(Semaphore permits, Window window, int start, int end) {
+        try {
+            int result = probe(permits, window, start, end - start);
+            if (result == 0) {
+                readable.add(window.range(start, end - start));
+            } else {
+                resolveBlock(permits, window, start, end, result);
+            }
+        } catch (IOException e) {
+            unresolved.add(window.range(start, end - start) + ": " + e.getMessage());
+        }
+    }
+
+    /*
+     * Note:
+     * Walks a failing block with single-address probes, stepping by the
+     * resolution through unreadable addresses. On each readable one it
+     * binary-searches back for where the readable run starts (only needed
+     * when steps skip addresses) and forward for where it ends. The forward
+     * search relies on a readable run staying readable as a read grows,
+     * until it reaches a bad address (0x02) or the device's quantity limit
+     * (0x03). On 0x03 the run continues from there.
+     */
+    private void resolveBlock(Semaphore permits, Window window, int start, int end, int blockResult)
+            throws IOException {
+        int cursor = start;
+        int classified = start - 1; // every address up to here is known readable or unreadable
+        try {
+            while (cursor < end) {
+                if (probe(permits, window, cursor, 1) != 0) {
+                    classified = cursor;
+                    cursor += resolution;
+                    continue;
+                }
+                // Smallest first with [first, cursor] readable, among the addresses not yet classified.
+                int first = cursor;
+                int low = classified + 1;
+                while (low < first) {
+                    int mid = (low + first) >>> 1;
+                    if (probe(permits, window, mid, cursor - mid + 1) == 0) {
+                        first = mid;
+                    } else {
+                        low = mid + 1;
+                    }
+                }
+                // Largest run from cursor; the whole rest of the block may still fail.
+                int good = 1;
+                int bad = end - cursor + 1;
+                int badResult = 0x02;
+                if (cursor == start) {
+                    bad = end - start;
+                    badResult = blockResult;
+                }
+                while (bad - good > 1) {
+                    int mid = (good + bad) >>> 1;
+                    int result = probe(permits, window, cursor, mid);
+                    if (result == 0) {
+                        good = mid;
+                    } else {
+                        bad = mid;
+                        badResult = result;
+                    }
+                }
+                readable.add(window.range(first, cursor + good - first));
+                classified = badResult == 0x03 ? cursor + good - 1 : cursor + good;
+                cursor = classified + 1;
+            }
+        } catch (IOException e) {
+            unresolved.add(window.range(cursor, Math.max(1, end - cursor)) + ": " + e.getMessage());
+        }
+    }
+
+    // Returns 0 when the whole block is readable, else the exception code (0x02 or 0x03).
+    private int probe(Semaphore permits, Window window, int index, int quantity) throws IOException {
+        int address = window.baseAddress + index;
+        int unitId = device.getUnitId();
+        IOException lastFailure = null;
+        permits.acquireUninterruptibly();
+        try {
+            for (int attempt = 0; attempt <= retries; attempt++) {
+                if (attempt > 0) {
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos((long) RETRY_BACKOFF_MILLIS * attempt));
+                }
+                awaitRateSlot();
+                probes.incrementAndGet();
+                try {
+                    device.execute(client -> {
+                        if (window.coils) {
+                            client.readCoilsDirect(unitId, address, quantity, new boolean[quantity], 0);
+                        } else {
+                            client.readHoldingRegistersDirect(unitId, address, quantity, new int[quantity], 0);
+                        }
+                        return null;
+                    });
+                    return 0;
+                } catch (ModbusException e) {
+                    int code = e.getExceptionCode() & 0xFF;
+                    if (code == 0x02 || code == 0x03) {
+                        return code;
+                    }
+                    if (code != 0x06) { // only Server Device Busy is worth retrying
+                        throw e;
+                    }
+                    lastFailure = e;
+                } catch (IOException e) {
+                    lastFailure = e;
+                }
+            }
+            throw lastFailure;
+        } finally {
+            permits.release();
+        }
+    }
+
+    // Hands out evenly spaced start times; a probe that finds its slot in the future sleeps until then.
+    private void awaitRateSlot() {
+        if (probesPerSecond <= 0) {
+            return;
+        }
+        long interval = (long) (1e9 / probesPerSecond);
+        long now = System.nanoTime();
+        long slot = nextProbeNanos.getAndUpdate(next -> Math.max(next, now) + interval);
+        long wait;
+        while ((wait = Math.max(slot, now) - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(wait);
+        }
+    }
+
+    // --- End of Scan Section ---
+
+    public long getProbeCount() {
+        return probes.get();
+    }
+
+    // Ranges that kept failing with timeouts or other errors, with the last error.
+    public List<String> getUnresolved() {
+        return new ArrayList<>(unresolved);
+    }
+
+    // ========================================================================
+    // Section: Command Line
+    // ========================================================================
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: java modbus.ModbusAddressScanner host[:port]|simulator [--unit N]"
+                    + " [--connections N] [--rate probes/s] [--resolution N] [--areas D0-D9999,M0-M8191]"
+                    + " [--out map.txt] [--csv tags.csv]");
+            return;
+        }
+        int unitId = 1;
+        int connections = 4;
+        double rate = 0;
+        int resolution = 1;
+        String areaList = null;
+        String mapFile = null;
+        String csvFile = null;
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--unit":
+                    unitId = Integer.parseInt(args[++i]);
+                    break;
+                case "--connections":
+                    connections = Integer.parseInt(args[++i]);
+                    break;
+                case "--rate":
+                    rate = Double.parseDouble(args[++i]);
+                    break;
+                case "--resolution":
+                    resolution = Integer.parseInt(args[++i]);
+                    break;
+                case "--areas":
+                    areaList = args[++i];
+                    break;
+                case "--out":
+                    mapFile = args[++i];
+                    break;
+                case "--csv":
+                    csvFile = args[++i];
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        // The map may go to stdout; keep connection chatter out of it.
+        ModbusLog.setLevel(ModbusLogger.Level.WARN);
+        ModbusServerSimulator simulator = null;
+        String host;
+        int port;
+        if (args[0].equals("simulator")) {
+            simulator = new ModbusServerSimulator(0);
+            host = "127.0.0.1";
+            port = simulator.getPort();
+        } else {
+            int colon = args[0].lastIndexOf(':');
+            host = colon < 0 ? args[0] : args[0].substring(0, colon);
+            port = colon < 0 ? 502 : Integer.parseInt(args[0].substring(colon + 1));
+        }
+
+        try (ModbusConnectionPool pool = new ModbusConnectionPool(connections, 3000)) {
+            ModbusAddressScanner scanner = new ModbusAddressScanner(pool.device(host, port, unitId));
+            scanner.setParallelism(connections);
+            scanner.setRate(rate);
+            scanner.setResolution(resolution);
+            if (areaList != null) {
+                for (String area : areaList.split(",")) {
+                    scanner.addArea(area.trim());
+                }
+            }
+            long start = System.nanoTime();
+            ModbusAddressMap map = scanner.scan();
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            StringBuilder header = new StringBuilder();
+            header.append("Readable addresses of ").append(host).append(':').append(port).append(" unit ")
+                    .append(unitId).append(", scanned ").append(Instant.now()).append('\n');
+            header.append(String.format("%d addresses in %d ranges, %d probes in %.1f s", map.getAddressCount(),
+                    map.getRanges().size(), scanner.getProbeCount(), seconds));
+            for (String failure : scanner.getUnresolved()) {
+                header.append("\nunresolved ").append(failure);
+            }
+            if (mapFile != null) {
+                map.save(Paths.get(mapFile), header.toString());
+            } else {
+                Writer stdout = new OutputStreamWriter(System.out, StandardCharsets.UTF_8);
+                map.write(stdout, header.toString());
+            }
+            if (csvFile != null) {
+                try (Writer csv = Files.newBufferedWriter(Paths.get(csvFile), StandardCharsets.UTF_8)) {
+                    map.writeTagCsv(csv);
+                }
+            }
+        } finally {
+            if (simulator != null) {
+                simulator.close();
+            }
+        }
+    }
+
+    // --- End of Command Line Section ---
+}
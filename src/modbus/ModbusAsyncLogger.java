@@ -0,0 +1,213 @@
+package modbus;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * ============================================================================
+ * Modbus Async Logger - Default ModbusLogger Backed by a Ring Buffer
+ * ============================================================================
+ * log() claims a slot in a fixed-size multi-producer ring with one CAS,
+ * stores the message and returns; it never blocks and never waits on the
+ * console. A single daemon thread drains the ring in batches, printing
+ * "LEVEL: message" lines (DEBUG/INFO to stdout, WARN/ERROR to stderr) with
+ * one write and flush per stream per batch.
+ *
+ * When the ring is full, for example during an error storm against a dead
+ * PLC, new messages are dropped and counted instead of stalling the I/O
+ * thread; the drainer reports the number dropped once it catches up.
+ */
+public class ModbusAsyncLogger implements ModbusLogger {
+
+    private static final ModbusAsyncLogger DEFAULT = new ModbusAsyncLogger(8192, null, null);
+
+    private static final int BATCH = 256;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long FLUSH_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    // --- Ring Buffer (slot = sequence & mask) ---
+    private final int capacity;
+    private final int mask;
+    private final Level[] levels;
+    private final String[] messages;
+    private final Throwable[] errors;
+    // Holds sequence + 1 once the slot's entry is fully written.
+    private final AtomicLongArray published;
+    private final AtomicLong head = new AtomicLong(); // next sequence to claim
+    private volatile long tail = 0; // next sequence to print; written by the drainer only
+
+    // --- Output (null means the current System.out / System.err) ---
+    private final PrintStream out;
+    private final PrintStream err;
+    private final StringBuilder outBatch = new StringBuilder(4096);
+    private final StringBuilder errBatch = new StringBuilder(4096);
+
+    // --- Drainer State ---
+    private volatile Thread drainer;
+    private volatile boolean drainerWaiting = false;
+    private final LongAdder dropped = new LongAdder();
+    private long droppedReported = 0; // drainer only
+
+    public ModbusAsyncLogger(int capacity, PrintStream out, PrintStream err) {
+        if (capacity < 2 || capacity > 1 << 24) {
+            throw new IllegalArgumentException("Capacity must be between 2 and " + (1 << 24) + ", but was " + capacity);
+        }
+        this.capacity = Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = this.capacity - 1;
+        this.levels = new Level[this.capacity];
+        this.messages = new String[this.capacity];
+        this.errors = new Throwable[this.capacity];
+        this.published = new AtomicLongArray(this.capacity);
+        this.out = out;
+        this.err = err;
+    }
+
+    public static ModbusAsyncLogger getDefault() {
+        return DEFAULT;
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    // ========================================================================
+    // Section: Producer Side
+    // ========================================================================
+
+    @Override
+    public void log(Level level, String message, Throwable error) {
+        if (drainer == null) {
+            startDrainer();
+        }
+        long sequence;
+        do {
+            sequence = head.get();
+            if (sequence - tail >= capacity) {
+                dropped.increment();
+                return;
+            }
+        } while (!head.compareAndSet(sequence, sequence + 1));
+
+        int slot = (int) sequence & mask;
+        levels[slot] = level;
+        messages[slot] = message;
+        errors[slot] = error;
+        published.set(slot, sequence + 1);
+        if (drainerWaiting) {
+            LockSupport.unpark(drainer);
+        }
+    }
+
+    // Blocks until everything logged before the call is printed, or two seconds pass.
+    @Override
+    public void flush() {
+        long target = head.get();
+        long deadline = System.nanoTime() + FLUSH_TIMEOUT_NANOS;
+        while (tail < target && System.nanoTime() - deadline < 0) {
+            Thread current = drainer;
+            if (current == null || !current.isAlive()) {
+                return;
+            }
+            LockSupport.unpark(current);
+            LockSupport.parkNanos(100_000);
+        }
+    }
+
+    private synchronized void startDrainer() {
+        if (drainer != null) {
+            return;
+        }
+        Thread thread = new Thread(this::drainLoop, "modbus-log");
+        thread.setDaemon(true);
+        drainer = thread;
+        thread.start();
+        // Daemon threads die with the JVM; print whatever is still queued first.
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "modbus-log-flush"));
+    }
+
+    // --- End of Producer Side Section ---
+
+    // ========================================================================
+    // Section: Drainer
+    // ========================================================================
+
+    private void drainLoop() {
+        while (true) {
+            if (drainBatch() > 0) {
+                continue;
+            }
+            /*
+             * Note:
+             * Publish "waiting" before re-checking the next slot. A producer
+             * publishes its slot before reading drainerWaiting, so either we
+             * see the entry here or it sees the flag and unparks us.
+             */
+            drainerWaiting = true;
+            if (published.get((int) tail & mask) != tail + 1) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+            drainerWaiting = false;
+        }
+    }
+
+    private int drainBatch() {
+        long next = tail;
+        int count = 0;
+        while (count < BATCH) {
+            int slot = (int) next & mask;
+            if (published.get(slot) != next + 1) {
+                break;
+            }
+            Level level = levels[slot];
+            String message = messages[slot];
+            Throwable error = errors[slot];
+            messages[slot] = null;
+            errors[slot] = null;
+
+            boolean toErr = level.ordinal() >= Level.WARN.ordinal();
+            StringBuilder batch = toErr ? errBatch : outBatch;
+            batch.append(level.name()).append(": ").append(message).append(System.lineSeparator());
+            if (error != null) {
+                // Stack traces go straight to the stream, so print what precedes them first.
+                writeBatch(batch, toErr ? errStream() : outStream());
+                error.printStackTrace(toErr ? errStream() : outStream());
+            }
+            next++;
+            count++;
+        }
+
+        long droppedNow = dropped.sum();
+        if (droppedNow != droppedReported) {
+            errBatch.append("WARN: Dropped ").append(droppedNow - droppedReported)
+                    .append(" log messages (log buffer full).").append(System.lineSeparator());
+            droppedReported = droppedNow;
+        }
+        writeBatch(outBatch, outStream());
+        writeBatch(errBatch, errStream());
+        tail = next;
+        return count;
+    }
+
+    private static void writeBatch(StringBuilder batch, PrintStream stream) {
+        if (batch.length() == 0) {
+            return;
+        }
+        stream.print(batch);
+        stream.flush();
+        batch.setLength(0);
+    }
+
+    private PrintStream outStream() {
+        return out != null ? out : System.out;
+    }
+
+    private PrintStream errStream() {
+        return err != null ? err : System.err;
+    }
+
+    // --- End of Drainer Section ---
+}
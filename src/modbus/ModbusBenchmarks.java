@@ -0,0 +1,214 @@
+package modbus;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.*;
+
+/**
+ * ============================================================================
+ * Modbus Benchmarks - Hot-Path Throughput and Allocation Report
+ * ============================================================================
+ * Measures frame building, response parsing, address translation and
+ * loopback round trips one at a time, printing ops/s and allocated bytes
+ * per operation so regressions on the hot path show up before rollout.
+ *
+ * Each micro benchmark warms up, then runs batches on the calling thread
+ * until the measurement window closes; results are published to static
+ * fields so the JIT cannot drop the work. Allocation is read from the JVM's
+ * per-thread allocation counter.
+ *
+ * Usage: java modbus.ModbusBenchmarks [secondsPerBenchmark]
+ *        ant bench [-Dbench.seconds=N]
+ */
+public class ModbusBenchmarks {
+
+    private static final int BATCH = 1000;
+    private static final int[] CONCURRENCY = { 1, 4, 16, 64 };
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static volatile long sink;
+    // Results are published here so escape analysis cannot elide them.
+    private static Object escaped;
+
+    private interface Operation {
+        long run() throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+        long windowNanos = TimeUnit.SECONDS.toNanos(seconds);
+
+        ModbusTCP codec = new ModbusTCP();
+        byte[] pdu = { 0x03, 0x10, 0x00, 0x00, 0x7D };
+        byte[] registersResponse = registersResponse(ModbusTCP.MAX_READ_REGISTERS);
+        byte[] coilsResponse = coilsResponse(ModbusTCP.MAX_READ_COILS);
+
+        System.out.printf("%-36s %14s %12s %12s%n", "benchmark", "ops/s", "B/op", "MB/s alloc");
+        run("buildMbapFrame", windowNanos, () -> consume(codec.buildMbapFrame(1, pdu)));
+        run("buildReadCoilsRequest", windowNanos, () -> consume(codec.buildReadCoilsRequest(1, 0x800, 2000)));
+        run("buildReadRegistersRequest", windowNanos,
+                () -> consume(codec.buildReadRegistersRequest(1, 0x1000, 125)));
+        run("buildWriteSingleCoilRequest", windowNanos,
+                () -> consume(codec.buildWriteSingleCoilRequest(1, 0x800, true)));
+        run("buildWriteSingleRegisterRequest", windowNanos,
+                () -> consume(codec.buildWriteSingleRegisterRequest(1, 0x1000, 1234)));
+        run("parseReadRegistersResponse(125)", windowNanos,
+                () -> consume(codec.parseReadRegistersResponse(registersResponse, ModbusTCP.MAX_READ_REGISTERS)));
+        run("parseReadCoilsResponse(2000)", windowNanos,
+                () -> consume(codec.parseReadCoilsResponse(coilsResponse, ModbusTCP.MAX_READ_COILS)));
+        run("plcAddressToModbus", windowNanos, () -> ModbusTCP.plcAddressToModbus("D500"));
+        run("ModbusTagRegistry.compile", windowNanos, () -> ModbusTagRegistry.compile("M1600"));
+        runLogging(windowNanos);
+
+        try (ModbusServerSimulator simulator = new ModbusServerSimulator(0)) {
+            for (int concurrency : CONCURRENCY) {
+                runLoopback(simulator.getPort(), concurrency, windowNanos);
+            }
+        }
+        System.out.println("(sink " + sink + ")");
+    }
+
+    // ========================================================================
+    // Section: Micro Benchmarks
+    // Purpose: Single-threaded timing of one operation.
+    // ========================================================================
+
+    private static void run(String name, long windowNanos, Operation operation) throws Exception {
+        measure(operation, windowNanos / 2);
+        long[] result = measure(operation, windowNanos);
+        report(name, result[0], result[1], result[2]);
+    }
+
+    // Returns { operations, elapsedNanos, allocatedBytes }.
+    private static long[] measure(Operation operation, long windowNanos) throws Exception {
+        long threadId = Thread.currentThread().threadId();
+        long allocatedBefore = THREADS.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        long end = start + windowNanos;
+        long operations = 0;
+        long accumulator = 0;
+        long now;
+        do {
+            for (int i = 0; i < BATCH; i++) {
+                accumulator += operation.run();
+            }
+            operations += BATCH;
+            now = System.nanoTime();
+        } while (now < end);
+        long allocated = THREADS.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        sink += accumulator;
+        return new long[] { operations, now - start, allocated };
+    }
+
+    /*
+     * Note:
+     * The disabled case is the guarded pattern used on the transaction path;
+     * it should cost a field read and allocate nothing. The enabled case only
+     * measures the caller's side: the async sink prints to a null stream and
+     * drops whatever the drainer cannot keep up with.
+     */
+    private static void runLogging(long windowNanos) throws Exception {
+        ModbusLogger.Level previousLevel = ModbusLog.getLevel();
+        ModbusLogger previousLogger = ModbusLog.getLogger();
+        long[] counter = new long[1];
+        Operation guardedError = () -> {
+            if (ModbusLog.isEnabled(ModbusLogger.Level.ERROR)) {
+                ModbusLog.error("Modbus read timeout after " + counter[0]++ + " ms.");
+            }
+            return counter[0];
+        };
+        try {
+            ModbusLog.setLevel(ModbusLogger.Level.OFF);
+            run("ModbusLog.error (disabled)", windowNanos, guardedError);
+            ModbusLog.setLevel(ModbusLogger.Level.ERROR);
+            PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+            ModbusLog.setLogger(new ModbusAsyncLogger(8192, discard, discard));
+            run("ModbusLog.error (async, enabled)", windowNanos, guardedError);
+        } finally {
+            ModbusLog.setLogger(previousLogger);
+            ModbusLog.setLevel(previousLevel);
+        }
+    }
+
+    // --- End of Micro Benchmarks Section ---
+
+    // ========================================================================
+    // Section: Loopback Benchmarks
+    // Purpose: FC03 round trips against ModbusServerSimulator, one pipelined
+    // connection shared by `concurrency` caller threads.
+    // ========================================================================
+
+    private static void runLoopback(int port, int concurrency, long windowNanos) throws Exception {
+        ModbusTCP client = new ModbusTCP();
+        client.setPipelineDepth(concurrency);
+        client.connect("127.0.0.1", port);
+        try {
+            ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+            CyclicBarrier startLine = new CyclicBarrier(concurrency);
+            java.util.List<Future<long[]>> results = new java.util.ArrayList<>();
+            for (int i = 0; i < concurrency; i++) {
+                results.add(workers.submit(() -> {
+                    Operation read = () -> consume(client.readHoldingRegisters(1, "D100", 10));
+                    measure(read, windowNanos / 2);
+                    startLine.await();
+                    return measure(read, windowNanos);
+                }));
+            }
+            long operations = 0;
+            long elapsed = 0;
+            long allocated = 0;
+            for (Future<long[]> result : results) {
+                long[] r = result.get();
+                operations += r[0];
+                elapsed = Math.max(elapsed, r[1]);
+                allocated += r[2];
+            }
+            workers.shutdown();
+            report("loopback FC03 x" + concurrency, operations, elapsed, allocated);
+        } finally {
+            client.disconnect();
+        }
+    }
+
+    // --- End of Loopback Benchmarks Section ---
+
+    private static long consume(Object result) {
+        escaped = result;
+        return 1;
+    }
+
+    private static void report(String name, long operations, long elapsedNanos, long allocatedBytes) {
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf("%-36s %14.0f %12.1f %12.1f%n", name, operations / seconds,
+                allocatedBytes / (double) operations, allocatedBytes / seconds / (1024 * 1024));
+    }
+
+    private static byte[] registersResponse(int quantity) {
+        byte[] adu = new byte[9 + quantity * 2];
+        adu[5] = (byte) (3 + quantity * 2);
+        adu[6] = 1;
+        adu[7] = 0x03;
+        adu[8] = (byte) (quantity * 2);
+        for (int i = 0; i < quantity; i++) {
+            adu[9 + i * 2] = (byte) (i >>> 8);
+            adu[10 + i * 2] = (byte) i;
+        }
+        return adu;
+    }
+
+    private static byte[] coilsResponse(int quantity) {
+        int byteCount = (quantity + 7) / 8;
+        byte[] adu = new byte[9 + byteCount];
+        adu[5] = (byte) (3 + byteCount);
+        adu[6] = 1;
+        adu[7] = 0x01;
+        adu[8] = (byte) byteCount;
+        for (int i = 0; i < byteCount; i++) {
+            adu[9 + i] = (byte) 0xA5;
+        }
+        return adu;
+    }
+}
@@ -0,0 +1,314 @@
+package modbus;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * ============================================================================
+ * Modbus Capture - Wire Traffic Recorded to Memory-Mapped Segment Files
+ * ============================================================================
+ * Attach with ModbusTCP.setCapture(); every request and response ADU is then
+ * appended with a nanosecond wall-clock timestamp. Records are copied into a
+ * MappedByteBuffer, so recording a frame is a memcpy under a lock with no
+ * system call; the OS writes the pages back in the background. A segment
+ * that cannot take the next record is left behind and a new file is mapped.
+ *
+ * Directory layout: capture-000000.mbcap, capture-000001.mbcap, ...
+ *
+ *   Segment header (32 bytes, big-endian):
+ *     int   magic 'MBCP'      short version     short header size
+ *     int   segment index     long  created (epoch nanos)
+ *     12 reserved bytes
+ *
+ *   Record (16-byte header + ADU):
+ *     int   ADU length        short stream ID   byte direction (0 request, 1 response)
+ *     byte  reserved          long  timestamp (epoch nanos)
+ *     ADU bytes
+ *
+ * Segments are preallocated and zero-filled, so a length of 0 marks the end
+ * of a segment. The length is written last, so a record cut short by a crash
+ * is never visible to Reader. Recording never throws into the I/O path: if a
+ * new segment cannot be created the capture is stopped and an error logged.
+ */
+public class ModbusCapture implements Closeable {
+
+    public static final int DEFAULT_SEGMENT_BYTES = 64 << 20;
+
+    static final int MAGIC = 0x4D424350; // "MBCP"
+    static final short VERSION = 1;
+    static final int SEGMENT_HEADER_BYTES = 32;
+    static final int RECORD_HEADER_BYTES = 16;
+    static final String SEGMENT_PREFIX = "capture-";
+    static final String SEGMENT_SUFFIX = ".mbcap";
+    static final byte REQUEST = 0;
+    static final byte RESPONSE = 1;
+
+    private final Path directory;
+    private final int segmentBytes;
+    // System.nanoTime() is monotonic but has no epoch; anchor it once.
+    private final long baseEpochNanos;
+    private final long baseNanoTime;
+    private final AtomicInteger streamIds = new AtomicInteger();
+
+    // --- Append State (guarded by lock) ---
+    private final ReentrantLock lock = new ReentrantLock();
+    private MappedByteBuffer segment;
+    private int segmentIndex = -1;
+    private long recordCount = 0;
+    private long byteCount = 0;
+    private boolean closed = false;
+
+    public ModbusCapture(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_BYTES);
+    }
+
+    public ModbusCapture(Path directory, int segmentBytes) throws IOException {
+        if (segmentBytes < 4096) {
+            throw new IllegalArgumentException("Segment size must be at least 4096 bytes, but was " + segmentBytes);
+        }
+        Files.createDirectories(directory);
+        if (!listSegments(directory).isEmpty()) {
+            throw new IOException("Capture directory already contains a capture: " + directory);
+        }
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        Instant now = Instant.now();
+        this.baseEpochNanos = now.getEpochSecond() * 1_000_000_000L + now.getNano();
+        this.baseNanoTime = System.nanoTime();
+        lock.lock();
+        try {
+            roll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Each attached client gets its own stream ID so replay can tell connections apart.
+    int newStream() {
+        return streamIds.incrementAndGet() & 0xFFFF;
+    }
+
+    // ========================================================================
+    // Section: Recording
+    // ========================================================================
+
+    void record(int streamId, byte direction, byte[] adu, int offset, int length) {
+        long timestamp = baseEpochNanos + (System.nanoTime() - baseNanoTime);
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            if (segment.remaining() < RECORD_HEADER_BYTES + length && !roll()) {
+                return;
+            }
+            int position = segment.position();
+            segment.putShort(position + 4, (short) streamId);
+            segment.put(position + 6, direction);
+            segment.putLong(position + 8, timestamp);
+            segment.put(position + RECORD_HEADER_BYTES, adu, offset, length);
+            segment.putInt(position, length);
+            segment.position(position + RECORD_HEADER_BYTES + length);
+            recordCount++;
+            byteCount += length;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Note:
+     * Runs on the recording thread once per segment. The finished segment is
+     * not forced to disk here; that would put an msync on the I/O path, and
+     * the mapping is written back by the OS anyway.
+     */
+    private boolean roll() {
+        int index = segmentIndex + 1;
+        Path file = directory.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+            mapped.putInt(MAGIC);
+            mapped.putShort(VERSION);
+            mapped.putShort((short) SEGMENT_HEADER_BYTES);
+            mapped.putInt(index);
+            mapped.putLong(baseEpochNanos + (System.nanoTime() - baseNanoTime));
+            mapped.position(SEGMENT_HEADER_BYTES);
+            segment = mapped;
+            segmentIndex = index;
+            return true;
+        } catch (IOException e) {
+            closed = true;
+            ModbusLog.error("Capture stopped, could not create segment " + file + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    // --- End of Recording Section ---
+
+    public long getRecordCount() {
+        lock.lock();
+        try {
+            return recordCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getByteCount() {
+        lock.lock();
+        try {
+            return byteCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    // Stops recording and forces the current segment to disk.
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (closed && segment == null) {
+                return;
+            }
+            closed = true;
+            if (segment != null) {
+                segment.force();
+                segment = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    static List<Path> listSegments(Path directory) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return segments;
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(file -> {
+                String name = file.getFileName().toString();
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }).sorted().forEach(segments::add);
+        }
+        return segments;
+    }
+
+    // ========================================================================
+    // Section: Reader
+    // Purpose: Walks the records of a capture directory in recorded order.
+    // ========================================================================
+
+    /*
+     * Note:
+     * Usage: while (reader.next()) { reader.frame() ... }. frame() is a
+     * read-only view into the mapped segment, valid until the next call to
+     * next(); copy it with frameBytes() to keep it.
+     */
+    public static final class Reader implements Closeable {
+        private final List<Path> segments;
+        private int nextSegment = 0;
+        private MappedByteBuffer current;
+        private Path currentFile;
+
+        private int streamId;
+        private boolean response;
+        private long timestampNanos;
+        private ByteBuffer frame;
+
+        public Reader(Path directory) throws IOException {
+            this.segments = listSegments(directory);
+            if (segments.isEmpty()) {
+                throw new FileNotFoundException("No capture segments in " + directory);
+            }
+        }
+
+        public boolean next() throws IOException {
+            while (true) {
+                if (current == null) {
+                    if (nextSegment == segments.size()) {
+                        return false;
+                    }
+                    open(segments.get(nextSegment++));
+                }
+                int position = current.position();
+                int length = current.remaining() >= RECORD_HEADER_BYTES ? current.getInt(position) : 0;
+                if (length == 0) {
+                    current = null;
+                    continue;
+                }
+                if (length < 0 || length > ModbusTCP.MAX_ADU_LENGTH
+                        || current.remaining() < RECORD_HEADER_BYTES + length) {
+                    throw new IOException("Corrupt capture record at offset " + position + " of " + currentFile);
+                }
+                streamId = current.getShort(position + 4) & 0xFFFF;
+                response = current.get(position + 6) == RESPONSE;
+                timestampNanos = current.getLong(position + 8);
+                frame = current.slice(position + RECORD_HEADER_BYTES, length).asReadOnlyBuffer();
+                current.position(position + RECORD_HEADER_BYTES + length);
+                return true;
+            }
+        }
+
+        private void open(Path file) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (mapped.remaining() < SEGMENT_HEADER_BYTES || mapped.getInt(0) != MAGIC) {
+                    throw new IOException("Not a Modbus capture segment: " + file);
+                }
+                if (mapped.getShort(4) != VERSION) {
+                    throw new IOException("Unsupported capture version " + mapped.getShort(4) + " in " + file);
+                }
+                mapped.position(mapped.getShort(6));
+                current = mapped;
+                currentFile = file;
+            }
+        }
+
+        public int streamId() {
+            return streamId;
+        }
+
+        public boolean isResponse() {
+            return response;
+        }
+
+        public long timestampNanos() {
+            return timestampNanos;
+        }
+
+        public ByteBuffer frame() {
+            return frame.duplicate();
+        }
+
+        public byte[] frameBytes() {
+            byte[] copy = new byte[frame.remaining()];
+            frame.get(frame.position(), copy);
+            return copy;
+        }
+
+        @Override
+        public void close() {
+            current = null;
+            frame = null;
+            nextSegment = segments.size();
+        }
+    }
+
+    // --- End of Reader Section ---
+}
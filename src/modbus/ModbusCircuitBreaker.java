@@ -0,0 +1,112 @@
+package modbus;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ============================================================================
+ * Modbus Circuit Breaker - Fail Fast While a Device Is Down
+ * ============================================================================
+ * CLOSED:    calls go through; consecutive failures are counted.
+ * OPEN:      after failureThreshold consecutive failures every call is
+ *            refused until the backoff delay has passed.
+ * HALF_OPEN: one trial call is let through; success closes the breaker,
+ *            failure re-opens it with the next, longer delay.
+ *
+ * Delays grow exponentially from initialBackoffMillis up to
+ * maxBackoffMillis, with equal jitter (half fixed, half random) so that many
+ * clients of one rebooting PLC do not reconnect in lockstep.
+ */
+public class ModbusCircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+
+    // --- Breaker State (guarded by this) ---
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    private int openCount = 0;
+    private long retryAtNanos = 0;
+    private boolean trialInFlight = false;
+
+    public ModbusCircuitBreaker(int failureThreshold, long initialBackoffMillis, long maxBackoffMillis) {
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException("Failure threshold must be at least 1, but was " + failureThreshold);
+        }
+        if (initialBackoffMillis < 1 || maxBackoffMillis < initialBackoffMillis) {
+            throw new IllegalArgumentException("Backoff must satisfy 1 <= initial <= max, but was "
+                    + initialBackoffMillis + " / " + maxBackoffMillis);
+        }
+        this.failureThreshold = failureThreshold;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    public ModbusCircuitBreaker() {
+        this(3, 250, 30000);
+    }
+
+    public synchronized boolean allowRequest() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.nanoTime() - retryAtNanos < 0) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                trialInFlight = true;
+                return true;
+            case HALF_OPEN:
+            default:
+                if (trialInFlight) {
+                    return false;
+                }
+                trialInFlight = true;
+                return true;
+        }
+    }
+
+    public synchronized void recordSuccess() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        openCount = 0;
+        trialInFlight = false;
+    }
+
+    public synchronized void recordFailure() {
+        consecutiveFailures++;
+        trialInFlight = false;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            open();
+        }
+    }
+
+    private void open() {
+        openCount++;
+        long delay = initialBackoffMillis << Math.min(openCount - 1, 30);
+        if (delay <= 0 || delay > maxBackoffMillis) {
+            delay = maxBackoffMillis;
+        }
+        long jittered = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+        retryAtNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(jittered);
+        state = State.OPEN;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    // Milliseconds until an OPEN breaker admits its next trial; 0 otherwise.
+    public synchronized long getRetryInMillis() {
+        if (state != State.OPEN) {
+            return 0;
+        }
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(retryAtNanos - System.nanoTime()));
+    }
+}
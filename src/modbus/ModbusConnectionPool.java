@@ -0,0 +1,581 @@
+package modbus;
+
+import java.io.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * ============================================================================
+ * Modbus Connection Pool - Striped Sockets per PLC with Health Checks
+ * ============================================================================
+ * Keeps up to connectionsPerDevice ModbusTCP connections per host:port:unitId
+ * and routes each call to the least-loaded healthy one, so many application
+ * threads can talk to the same PLC without serializing on one socket.
+ *
+ * Broken connections are evicted and replaced on a background thread while
+ * callers keep using the remaining ones. Each device has a circuit breaker:
+ * once connects keep failing, callers fail fast and reconnects back off
+ * exponentially until the device answers again. Idle connections are validated
+ * with a one-register keepalive read. setConnectionLimit() caps the total
+ * number of sockets opened to one host:port, whatever the unit ID.
+ *
+ * Optionally, response timeouts adapt to each device's observed round-trip
+ * times (setAdaptiveTimeout), and FC01/FC03 reads are hedged (setHedging):
+ * a read still unanswered after the device's usual latency at the given
+ * percentile is sent again on a second connection, and whichever reply
+ * comes first is returned.
+ */
+public class ModbusConnectionPool implements Closeable {
+
+    public interface ModbusCall<T> {
+        T call(ModbusTCP client) throws IOException;
+    }
+
+    // Minimum spacing between background reconnect attempts for one slot.
+    private static final long REPLACE_RETRY_MILLIS = 1000;
+    // Reads per latency window; each full window recomputes a device's hedge delay.
+    private static final int HEDGE_WINDOW = 1000;
+
+    private final int connectionsPerDevice;
+    private final int timeoutMillis;
+    private final ConcurrentHashMap<String, Device> devices = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Semaphore> endpointLimits = new ConcurrentHashMap<>();
+    private final ExecutorService replacer;
+    private final ScheduledExecutorService validator;
+    private final ExecutorService hedgeLegs = Executors.newVirtualThreadPerTaskExecutor();
+
+    private volatile int pipelineDepth = 1;
+    private volatile long idleValidationMillis = 30000;
+    private volatile String keepaliveAddress = "D0";
+    private volatile int adaptiveMinMillis = 0;
+    private volatile double hedgePercentile = 0;
+    private volatile long hedgeMinDelayNanos = 0;
+    private volatile boolean closed = false;
+
+    public ModbusConnectionPool(int connectionsPerDevice, int timeoutMillis) {
+        if (connectionsPerDevice < 1) {
+            throw new IllegalArgumentException("Connections per device must be at least 1, but was "
+                    + connectionsPerDevice);
+        }
+        if (timeoutMillis < 0) {
+            throw new IllegalArgumentException("Timeout cannot be negative");
+        }
+        this.connectionsPerDevice = connectionsPerDevice;
+        this.timeoutMillis = timeoutMillis;
+        this.replacer = Executors.newCachedThreadPool(daemonThreads("modbus-pool-replacer"));
+        this.validator = Executors.newSingleThreadScheduledExecutor(daemonThreads("modbus-pool-validator"));
+        this.validator.scheduleWithFixedDelay(this::validateIdleConnections, 1, 1, TimeUnit.SECONDS);
+    }
+
+    // ========================================================================
+    // Section: Configuration
+    // ========================================================================
+
+    /*
+     * Note:
+     * Many PLCs accept only a handful of TCP connections. The limit covers
+     * every unit ID on host:port and should be set before the first call.
+     */
+    public void setConnectionLimit(String host, int port, int maxConnections) {
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException("Connection limit must be at least 1, but was " + maxConnections);
+        }
+        endpointLimits.put(host + ":" + port, new Semaphore(maxConnections));
+    }
+
+    // Applies to connections opened from now on; see ModbusTCP.setPipelineDepth().
+    public void setPipelineDepth(int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("Pipeline depth must be at least 1, but was " + maxInFlight);
+        }
+        this.pipelineDepth = maxInFlight;
+    }
+
+    public void setIdleValidation(long idleMillis, String plcKeepaliveAddress) {
+        if (idleMillis < 0) {
+            throw new IllegalArgumentException("Idle time cannot be negative");
+        }
+        ModbusTCP.plcAddressToModbus(plcKeepaliveAddress);
+        this.idleValidationMillis = idleMillis;
+        this.keepaliveAddress = plcKeepaliveAddress;
+    }
+
+    /*
+     * Note:
+     * Gives each device a ModbusRttEstimator bounded by minMillis and the
+     * pool timeout, shared by all its connections; 0 turns it off. Applies
+     * to devices first used from now on.
+     */
+    public void setAdaptiveTimeout(int minMillis) {
+        if (minMillis < 0) {
+            throw new IllegalArgumentException("Minimum timeout cannot be negative");
+        }
+        this.adaptiveMinMillis = minMillis;
+    }
+
+    /*
+     * Note:
+     * Hedges readCoils and readHoldingRegisters: once a read has waited
+     * longer than the device's latency at percentile (e.g. 95), and at
+     * least minDelayMillis, it is also sent on another connection. Needs
+     * connectionsPerDevice >= 2; without pipelining, 3 or more, since a
+     * losing leg keeps its connection busy until it is answered. Hedging
+     * starts after the first HEDGE_WINDOW reads of a device have set its
+     * delay. 0 turns it off.
+     */
+    public void setHedging(double percentile, long minDelayMillis) {
+        if (percentile < 0 || percentile >= 100 || minDelayMillis < 0) {
+            throw new IllegalArgumentException("Hedging needs 0 <= percentile < 100 and a non-negative delay");
+        }
+        this.hedgePercentile = percentile;
+        this.hedgeMinDelayNanos = TimeUnit.MILLISECONDS.toNanos(minDelayMillis);
+    }
+
+    public Device device(String host, int port, int unitId) {
+        if (closed) {
+            throw new IllegalStateException("Connection pool is closed");
+        }
+        return devices.computeIfAbsent(host + ":" + port + ":" + unitId, key -> new Device(host, port, unitId));
+    }
+
+    // --- End of Configuration Section ---
+
+    // ========================================================================
+    // Section: Device
+    // Purpose: The pooled view of one host:port:unitId.
+    // ========================================================================
+
+    public class Device {
+        private final String host;
+        private final int port;
+        private final int unitId;
+        private final Slot[] slots;
+        private final ModbusCircuitBreaker breaker = new ModbusCircuitBreaker();
+        private final ModbusRttEstimator rtt;
+
+        // --- Hedging State ---
+        private volatile ModbusLatencyHistogram latencyWindow = new ModbusLatencyHistogram();
+        private final AtomicInteger windowCount = new AtomicInteger();
+        private volatile long hedgeDelayNanos = 0; // 0 until the first window is full
+        private final AtomicLong hedgedReads = new AtomicLong();
+
+        private Device(String host, int port, int unitId) {
+            this.host = host;
+            this.port = port;
+            this.unitId = unitId;
+            int minMillis = adaptiveMinMillis;
+            this.rtt = minMillis > 0 ? new ModbusRttEstimator(minMillis, Math.max(minMillis, timeoutMillis)) : null;
+            this.slots = new Slot[connectionsPerDevice];
+            for (int i = 0; i < slots.length; i++) {
+                slots[i] = new Slot(this);
+            }
+        }
+
+        public <T> T execute(ModbusCall<T> call) throws IOException {
+            return executeOn(acquire(), call);
+        }
+
+        private <T> T executeOn(Slot slot, ModbusCall<T> call) throws IOException {
+            ModbusTCP client = slot.client.get();
+            if (client == null) {
+                throw new IOException("Not connected.");
+            }
+            slot.inFlight.incrementAndGet();
+            try {
+                return call.call(client);
+            } finally {
+                slot.lastUsedNanos = System.nanoTime();
+                slot.inFlight.decrementAndGet();
+                if (!client.isConnected()) {
+                    slot.evict(client);
+                }
+            }
+        }
+
+        public boolean[] readCoils(String plcStartAddress, int quantity) throws IOException {
+            return executeHedged(client -> client.readCoils(unitId, plcStartAddress, quantity));
+        }
+
+        public int[] readHoldingRegisters(String plcStartAddress, int quantity) throws IOException {
+            return executeHedged(client -> client.readHoldingRegisters(unitId, plcStartAddress, quantity));
+        }
+
+        public void writeSingleCoil(String plcAddress, boolean value) throws IOException {
+            execute(client -> {
+                client.writeSingleCoil(unitId, plcAddress, value);
+                return null;
+            });
+        }
+
+        public void writeSingleRegister(String plcAddress, int value) throws IOException {
+            execute(client -> {
+                client.writeSingleRegister(unitId, plcAddress, value);
+                return null;
+            });
+        }
+
+        public void writeMultipleRegisters(String plcStartAddress, int[] values) throws IOException {
+            execute(client -> {
+                client.writeMultipleRegisters(unitId, plcStartAddress, values);
+                return null;
+            });
+        }
+
+        public void writeMultipleCoils(String plcStartAddress, boolean[] values) throws IOException {
+            execute(client -> {
+                client.writeMultipleCoils(unitId, plcStartAddress, values);
+                return null;
+            });
+        }
+
+        public int getUnitId() {
+            return unitId;
+        }
+
+        // null unless setAdaptiveTimeout() was on when this device was created.
+        public ModbusRttEstimator getRttEstimator() {
+            return rtt;
+        }
+
+        public long getHedgedReadCount() {
+            return hedgedReads.get();
+        }
+
+        public double getHedgeDelayMillis() {
+            return hedgeDelayNanos / 1e6;
+        }
+
+        public ModbusCircuitBreaker.State getCircuitState() {
+            return breaker.getState();
+        }
+
+        public int getOpenConnections() {
+            int open = 0;
+            for (Slot slot : slots) {
+                if (slot.isHealthy()) {
+                    open++;
+                }
+            }
+            return open;
+        }
+
+        /*
+         * Picks the healthy slot with the fewest calls in flight. Empty slots
+         * are refilled in the background; only when no slot is usable does
+         * the caller pay for a connect itself.
+         */
+        private Slot acquire() throws IOException {
+            Slot best = null;
+            int bestLoad = Integer.MAX_VALUE;
+            for (Slot slot : slots) {
+                if (slot.isHealthy()) {
+                    int load = slot.inFlight.get();
+                    if (load < bestLoad) {
+                        best = slot;
+                        bestLoad = load;
+                    }
+                } else {
+                    slot.scheduleReplace();
+                }
+            }
+            if (best != null) {
+                return best;
+            }
+            long retryIn = breaker.getRetryInMillis();
+            if (retryIn > 0) {
+                throw new IOException("Circuit open for " + host + ":" + port + ", next reconnect attempt in "
+                        + retryIn + " ms.");
+            }
+
+            IOException lastFailure = null;
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            for (Slot slot : slots) {
+                try {
+                    if (slot.connect() || slot.awaitConnect(deadline)) {
+                        return slot;
+                    }
+                } catch (IOException e) {
+                    lastFailure = e;
+                }
+            }
+            if (lastFailure != null) {
+                throw lastFailure;
+            }
+            throw new IOException("No connection available to " + host + ":" + port + " (unit " + unitId + ")");
+        }
+
+        private Semaphore endpointLimit() {
+            return endpointLimits.get(host + ":" + port);
+        }
+
+        // --- Hedged Reads ---
+
+        private <T> T executeHedged(ModbusCall<T> call) throws IOException {
+            long delay = hedgeDelayNanos;
+            if (hedgePercentile == 0 || delay == 0 || slots.length < 2) {
+                long start = System.nanoTime();
+                T value = execute(call);
+                recordLatency(System.nanoTime() - start);
+                return value;
+            }
+
+            Slot first = acquire();
+            CompletableFuture<T> result = new CompletableFuture<>();
+            AtomicInteger legs = new AtomicInteger(1);
+            startLeg(first, call, result, legs, true);
+            try {
+                try {
+                    return result.get(delay, TimeUnit.NANOSECONDS);
+                } catch (TimeoutException slow) {
+                    Slot second = acquireOther(first);
+                    if (second != null && !result.isDone()) {
+                        legs.incrementAndGet();
+                        hedgedReads.incrementAndGet();
+                        startLeg(second, call, result, legs, false);
+                    }
+                }
+                return result.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IOException("Hedged read failed: " + cause, cause);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a hedged read");
+            }
+        }
+
+        /*
+         * Note:
+         * The first reply wins, and a Modbus exception reply counts as one.
+         * Only when every leg has failed does the read fail, with the last
+         * error. The losing leg is not cancelled; interrupting it would
+         * close its socket. Only the first leg's latency feeds the window,
+         * so hedging does not lower its own trigger.
+         */
+        private <T> void startLeg(Slot slot, ModbusCall<T> call, CompletableFuture<T> result, AtomicInteger legs,
+                boolean first) {
+            try {
+                hedgeLegs.execute(() -> {
+                    long start = System.nanoTime();
+                    try {
+                        T value = executeOn(slot, call);
+                        if (first) {
+                            recordLatency(System.nanoTime() - start);
+                        }
+                        result.complete(value);
+                    } catch (ModbusException e) {
+                        result.completeExceptionally(e);
+                    } catch (IOException | RuntimeException e) {
+                        if (legs.decrementAndGet() == 0) {
+                            result.completeExceptionally(e);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                if (legs.decrementAndGet() == 0) {
+                    result.completeExceptionally(new IOException("Connection pool is closed"));
+                }
+            }
+        }
+
+        // Without pipelining a busy connection would queue the hedge behind its call, so only idle ones count.
+        private Slot acquireOther(Slot exclude) {
+            Slot best = null;
+            int bestLoad = pipelineDepth > 1 ? Integer.MAX_VALUE : 1;
+            for (Slot slot : slots) {
+                if (slot != exclude && slot.isHealthy() && slot.inFlight.get() < bestLoad) {
+                    best = slot;
+                    bestLoad = slot.inFlight.get();
+                }
+            }
+            return best;
+        }
+
+        // Every HEDGE_WINDOW reads the window's percentile becomes the new delay and a fresh window starts.
+        private void recordLatency(long nanos) {
+            if (hedgePercentile == 0) {
+                return;
+            }
+            ModbusLatencyHistogram window = latencyWindow;
+            window.recordValue(nanos);
+            if (windowCount.incrementAndGet() == HEDGE_WINDOW) {
+                hedgeDelayNanos = Math.max(hedgeMinDelayNanos, window.getValueAtPercentile(hedgePercentile));
+                latencyWindow = new ModbusLatencyHistogram();
+                windowCount.set(0);
+            }
+        }
+    }
+
+    // --- End of Device Section ---
+
+    // ========================================================================
+    // Section: Slot
+    // Purpose: One pooled socket and its load and health bookkeeping.
+    // ========================================================================
+
+    private class Slot {
+        private final Device device;
+        private final AtomicReference<ModbusTCP> client = new AtomicReference<>();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicBoolean connecting = new AtomicBoolean();
+        private volatile long lastUsedNanos = System.nanoTime();
+        private volatile long nextReplaceNanos = System.nanoTime();
+
+        Slot(Device device) {
+            this.device = device;
+        }
+
+        boolean isHealthy() {
+            ModbusTCP current = client.get();
+            return current != null && current.isConnected();
+        }
+
+        // Returns false when another thread is connecting or the endpoint is at its limit.
+        boolean connect() throws IOException {
+            if (closed || !connecting.compareAndSet(false, true)) {
+                return false;
+            }
+            Semaphore limit = device.endpointLimit();
+            boolean permitHeld = false;
+            try {
+                if (isHealthy()) {
+                    return true;
+                }
+                // A client that died while idle still holds its endpoint permit; hand it back first.
+                ModbusTCP dead = client.get();
+                if (dead != null) {
+                    evict(dead);
+                }
+                if (limit != null && !limit.tryAcquire()) {
+                    return false;
+                }
+                permitHeld = limit != null;
+                ModbusTCP fresh = new ModbusTCP();
+                fresh.setTimeout(timeoutMillis);
+                fresh.setPipelineDepth(pipelineDepth);
+                fresh.setAdaptiveTimeout(device.rtt);
+                try {
+                    fresh.connect(device.host, device.port);
+                } catch (IOException e) {
+                    device.breaker.recordFailure();
+                    throw e;
+                }
+                device.breaker.recordSuccess();
+                lastUsedNanos = System.nanoTime();
+                client.set(fresh);
+                permitHeld = false;
+                return true;
+            } finally {
+                if (permitHeld) {
+                    limit.release();
+                }
+                connecting.set(false);
+            }
+        }
+
+        // Waits out a connect already running on another thread.
+        boolean awaitConnect(long deadlineNanos) {
+            while (connecting.get() && System.nanoTime() - deadlineNanos < 0) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            }
+            return isHealthy();
+        }
+
+        void scheduleReplace() {
+            long now = System.nanoTime();
+            if (closed || connecting.get() || now - nextReplaceNanos < 0 || device.breaker.getRetryInMillis() > 0) {
+                return;
+            }
+            nextReplaceNanos = now + TimeUnit.MILLISECONDS.toNanos(REPLACE_RETRY_MILLIS);
+            replacer.execute(() -> {
+                try {
+                    connect();
+                } catch (IOException e) {
+                    ModbusLog.error("Pool reconnect to " + device.host + ":" + device.port
+                            + " failed: " + e.getMessage());
+                }
+            });
+        }
+
+        void evict(ModbusTCP broken) {
+            if (!client.compareAndSet(broken, null)) {
+                return;
+            }
+            broken.disconnect();
+            Semaphore limit = device.endpointLimit();
+            if (limit != null) {
+                limit.release();
+            }
+            scheduleReplace();
+        }
+    }
+
+    // --- End of Slot Section ---
+
+    // ========================================================================
+    // Section: Health Checks
+    // ========================================================================
+
+    private void validateIdleConnections() {
+        long idleNanos = TimeUnit.MILLISECONDS.toNanos(idleValidationMillis);
+        for (Device device : devices.values()) {
+            for (Slot slot : device.slots) {
+                ModbusTCP current = slot.client.get();
+                if (current == null || slot.inFlight.get() > 0
+                        || System.nanoTime() - slot.lastUsedNanos < idleNanos) {
+                    continue;
+                }
+                slot.inFlight.incrementAndGet();
+                try {
+                    current.readHoldingRegisters(device.unitId, keepaliveAddress, 1);
+                } catch (ModbusException e) {
+                    // An exception reply still proves the link is alive.
+                } catch (IOException | RuntimeException e) {
+                    ModbusLog.error("Keepalive to " + device.host + ":" + device.port + " failed: "
+                            + e.getMessage());
+                    slot.evict(current);
+                } finally {
+                    slot.lastUsedNanos = System.nanoTime();
+                    slot.inFlight.decrementAndGet();
+                }
+            }
+        }
+    }
+
+    // --- End of Health Checks Section ---
+
+    @Override
+    public void close() {
+        closed = true;
+        validator.shutdownNow();
+        replacer.shutdownNow();
+        hedgeLegs.shutdown();
+        for (Device device : devices.values()) {
+            for (Slot slot : device.slots) {
+                ModbusTCP current = slot.client.getAndSet(null);
+                if (current != null) {
+                    current.disconnect();
+                }
+            }
+        }
+        devices.clear();
+    }
+
+    static ThreadFactory daemonThreads(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
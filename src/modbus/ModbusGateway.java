@@ -0,0 +1,335 @@
+package modbus;
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * ============================================================================
+ * Modbus TCP Gateway - Many Inbound Clients over Few PLC Connections
+ * ============================================================================
+ * Accepts any number of Modbus TCP clients (SCADA, HMIs, historians) and
+ * forwards their requests to one PLC through a ModbusConnectionPool capped at
+ * upstreamConnections sockets. Each forwarded request gets a fresh upstream
+ * Transaction ID from the pooled ModbusTCP client, and the reply is sent
+ * back under the ID and unit ID the inbound client used. So requests from
+ * all clients are pipelined over the same few sockets.
+ *
+ * Identical read requests (FC01-FC04, same unit and PDU) that are in flight
+ * at the same time share one upstream transaction. Each inbound client can
+ * be rate limited with a token bucket: its requests are delayed, not
+ * rejected, so a chatty client slows down without seeing errors. Each client
+ * also has at most MAX_REQUESTS_PER_CLIENT requests in flight; beyond that
+ * its connection is not read until a reply goes out. When the PLC cannot be
+ * reached, clients get exception 0x0A (Gateway Path Unavailable) or 0x0B
+ * (Gateway Target Device Failed to Respond).
+ *
+ * Usage: java modbus.ModbusGateway listenPort plcHost plcPort [upstreamConnections]
+ */
+public class ModbusGateway implements Closeable {
+
+    // Requests one inbound connection may have in flight before its reader stops reading.
+    private static final int MAX_REQUESTS_PER_CLIENT = 32;
+
+    // --- Upstream ---
+    private final ModbusConnectionPool pool;
+    private final ModbusConnectionPool.Device upstream;
+
+    // --- Inbound Server State ---
+    private final ServerSocket serverSocket;
+    private final ExecutorService connectionThreads = Executors.newVirtualThreadPerTaskExecutor();
+    private final ExecutorService requestThreads = Executors.newVirtualThreadPerTaskExecutor();
+    private final Set<Socket> clients = ConcurrentHashMap.newKeySet();
+    private final ConcurrentHashMap<ByteBuffer, CompletableFuture<byte[]>> pendingReads = new ConcurrentHashMap<>();
+
+    // --- Configuration ---
+    private volatile boolean deduplicateReads = true;
+    private volatile double clientRequestsPerSecond = 0;
+    private volatile int clientBurst = 1;
+
+    // --- Statistics ---
+    private final AtomicLong inboundRequests = new AtomicLong();
+    private final AtomicLong upstreamRequests = new AtomicLong();
+    private final AtomicLong deduplicatedReads = new AtomicLong();
+    private final AtomicLong throttledRequests = new AtomicLong();
+
+    public ModbusGateway(int listenPort, String plcHost, int plcPort, int upstreamConnections,
+            int upstreamPipelineDepth, int timeoutMillis) throws IOException {
+        this.pool = new ModbusConnectionPool(upstreamConnections, timeoutMillis);
+        this.pool.setPipelineDepth(upstreamPipelineDepth);
+        this.pool.setConnectionLimit(plcHost, plcPort, upstreamConnections);
+        // The pooled device's unit ID is only used for keepalives; requests keep their own.
+        this.upstream = pool.device(plcHost, plcPort, 1);
+        this.serverSocket = new ServerSocket(listenPort, 1024);
+        Thread acceptor = new Thread(this::acceptLoop, "modbus-gateway-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Usage: java modbus.ModbusGateway listenPort plcHost plcPort [upstreamConnections]");
+            return;
+        }
+        int connections = args.length > 3 ? Integer.parseInt(args[3]) : 2;
+        ModbusGateway gateway = new ModbusGateway(Integer.parseInt(args[0]), args[1], Integer.parseInt(args[2]),
+                connections, 32, 5000);
+        ModbusLog.info("Modbus gateway listening on port " + gateway.getPort() + ", forwarding to "
+                + args[1] + ":" + args[2] + " over " + connections + " connection(s)");
+        Thread.currentThread().join();
+    }
+
+    // ========================================================================
+    // Section: Configuration and Statistics
+    // ========================================================================
+
+    public void setDeduplicateReads(boolean enabled) {
+        this.deduplicateReads = enabled;
+    }
+
+    /*
+     * Note:
+     * Each inbound connection gets its own bucket of `burst` requests,
+     * refilled at requestsPerSecond. A rate of 0 turns limiting off. Applies
+     * to connections accepted from now on.
+     */
+    public void setClientRateLimit(double requestsPerSecond, int burst) {
+        if (requestsPerSecond < 0 || burst < 1) {
+            throw new IllegalArgumentException("Rate cannot be negative and burst must be at least 1");
+        }
+        this.clientRequestsPerSecond = requestsPerSecond;
+        this.clientBurst = burst;
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public int getClientCount() {
+        return clients.size();
+    }
+
+    public long getInboundRequestCount() {
+        return inboundRequests.get();
+    }
+
+    public long getUpstreamRequestCount() {
+        return upstreamRequests.get();
+    }
+
+    // Reads answered by sharing another client's in-flight request.
+    public long getDeduplicatedReadCount() {
+        return deduplicatedReads.get();
+    }
+
+    // Requests that had to wait for their client's rate limit.
+    public long getThrottledRequestCount() {
+        return throttledRequests.get();
+    }
+
+    // --- End of Configuration and Statistics Section ---
+
+    // ========================================================================
+    // Section: Inbound Connections
+    // Purpose: Frame client requests and send replies under the client's own
+    // Transaction ID.
+    // ========================================================================
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                clients.add(socket);
+                connectionThreads.execute(() -> serve(socket));
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        ReentrantLock writeLock = new ReentrantLock();
+        TokenBucket bucket = clientRequestsPerSecond > 0
+                ? new TokenBucket(clientRequestsPerSecond, clientBurst)
+                : null;
+        Semaphore inFlight = new Semaphore(MAX_REQUESTS_PER_CLIENT);
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            while (true) {
+                byte[] mbap = new byte[7];
+                in.readFully(mbap);
+                if (mbap[2] != 0 || mbap[3] != 0) {
+                    throw new IOException("Invalid protocol ID in MBAP header: "
+                            + (((mbap[2] & 0xFF) << 8) | (mbap[3] & 0xFF)));
+                }
+                int length = ((mbap[4] & 0xFF) << 8) | (mbap[5] & 0xFF);
+                if (length < 2 || length > ModbusTCP.MAX_ADU_LENGTH - 6) {
+                    throw new IOException("Invalid request length in MBAP header: " + length);
+                }
+                byte[] pdu = new byte[length - 1];
+                in.readFully(pdu);
+                inboundRequests.incrementAndGet();
+
+                // Throttling on the reader thread pushes back on the client through TCP.
+                if (bucket != null && bucket.acquire()) {
+                    throttledRequests.incrementAndGet();
+                }
+                inFlight.acquire();
+                requestThreads.execute(() -> {
+                    try {
+                        byte[] responsePdu = forward(mbap[6] & 0xFF, pdu);
+                        send(socket, out, writeLock, frame(mbap, responsePdu));
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+        } catch (IOException | RejectedExecutionException | InterruptedException e) {
+            // Client closed the connection, sent garbage or the gateway is closing.
+        } finally {
+            clients.remove(socket);
+            closeQuietly(socket);
+        }
+    }
+
+    private static void send(Socket socket, DataOutputStream out, ReentrantLock writeLock, byte[] responseAdu) {
+        writeLock.lock();
+        try {
+            out.write(responseAdu);
+            out.flush();
+        } catch (IOException e) {
+            closeQuietly(socket);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private static byte[] frame(byte[] requestMbap, byte[] responsePdu) {
+        byte[] adu = new byte[7 + responsePdu.length];
+        System.arraycopy(requestMbap, 0, adu, 0, 4);
+        adu[4] = (byte) ((responsePdu.length + 1) >>> 8);
+        adu[5] = (byte) ((responsePdu.length + 1) & 0xFF);
+        adu[6] = requestMbap[6];
+        System.arraycopy(responsePdu, 0, adu, 7, responsePdu.length);
+        return adu;
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Already closed.
+        }
+    }
+
+    // --- End of Inbound Connections Section ---
+
+    // ========================================================================
+    // Section: Forwarding
+    // Purpose: Send one request upstream, sharing identical concurrent reads.
+    // ========================================================================
+
+    private byte[] forward(int unitId, byte[] pdu) {
+        if (!deduplicateReads || !isRead(pdu[0])) {
+            return forwardUpstream(unitId, pdu);
+        }
+        byte[] keyBytes = new byte[pdu.length + 1];
+        keyBytes[0] = (byte) unitId;
+        System.arraycopy(pdu, 0, keyBytes, 1, pdu.length);
+        ByteBuffer key = ByteBuffer.wrap(keyBytes);
+
+        CompletableFuture<byte[]> mine = new CompletableFuture<>();
+        CompletableFuture<byte[]> shared = pendingReads.putIfAbsent(key, mine);
+        if (shared != null) {
+            deduplicatedReads.incrementAndGet();
+            return shared.join();
+        }
+        try {
+            byte[] response = forwardUpstream(unitId, pdu);
+            mine.complete(response);
+            return response;
+        } finally {
+            pendingReads.remove(key, mine);
+        }
+    }
+
+    // Never throws: upstream failures become gateway exception replies.
+    private byte[] forwardUpstream(int unitId, byte[] pdu) {
+        upstreamRequests.incrementAndGet();
+        try {
+            return upstream.execute(client -> client.forwardPdu(unitId, pdu));
+        } catch (IOException | RuntimeException e) {
+            byte exceptionCode = upstream.getOpenConnections() == 0 ? (byte) 0x0A : (byte) 0x0B;
+            return new byte[] { (byte) (pdu[0] | 0x80), exceptionCode };
+        }
+    }
+
+    private static boolean isRead(byte functionCode) {
+        return functionCode >= 0x01 && functionCode <= 0x04;
+    }
+
+    // --- End of Forwarding Section ---
+
+    // ========================================================================
+    // Section: Rate Limiting
+    // ========================================================================
+
+    private static final class TokenBucket {
+        private final double tokensPerNano;
+        private final double capacity;
+        private double tokens;
+        private long lastRefillNanos = System.nanoTime();
+
+        TokenBucket(double tokensPerSecond, int burst) {
+            this.tokensPerNano = tokensPerSecond / 1e9;
+            this.capacity = burst;
+            this.tokens = burst;
+        }
+
+        // Only called from the connection's reader thread. Returns true if it had to wait.
+        boolean acquire() throws InterruptedIOException {
+            refill();
+            boolean waited = false;
+            while (tokens < 1) {
+                waited = true;
+                LockSupport.parkNanos((long) Math.ceil((1 - tokens) / tokensPerNano));
+                if (Thread.interrupted()) {
+                    throw new InterruptedIOException("Interrupted while rate limited");
+                }
+                refill();
+            }
+            tokens -= 1;
+            return waited;
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * tokensPerNano);
+            lastRefillNanos = now;
+        }
+    }
+
+    // --- End of Rate Limiting Section ---
+
+    @Override
+    public void close() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // Already closed.
+        }
+        for (Socket client : clients) {
+            closeQuietly(client);
+        }
+        connectionThreads.shutdown();
+        requestThreads.shutdown();
+        pool.close();
+    }
+}
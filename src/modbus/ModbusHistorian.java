@@ -0,0 +1,932 @@
+package modbus;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * ============================================================================
+ * Modbus Historian - Compressed Off-Heap Time Series for Polled Values
+ * ============================================================================
+ * Keeps a short history per series (one tag on one device) in direct memory
+ * that is allocated once, so the footprint is fixed up front:
+ *
+ *   maxSeries * blocksPerSeries * blockBytes
+ *
+ * Each series owns a ring of fixed-size blocks. Samples are appended to the
+ * newest block with Gorilla-style compression: timestamps as
+ * delta-of-delta, values as the XOR with the previous value. A value that
+ * did not change costs 1 bit, and so does a steady poll interval. A full
+ * block is sealed and the next one, the oldest, is overwritten.
+ *
+ * With a flush directory, a background thread appends sealed blocks to
+ * historian-NNNNNN.mbhist files as they are, so the disk holds the long
+ * history (a week and more) and memory only the recent window. Read them
+ * back with scanFile(). Series IDs are kept stable across restarts in
+ * series.csv in the same directory.
+ *
+ * Samples are (epoch millis, double); register and coil values are stored
+ * exactly. Each series is guarded by one of a fixed set of striped locks, so
+ * recording allocates nothing and different series rarely contend.
+ */
+public class ModbusHistorian implements Closeable {
+
+    public interface SampleVisitor {
+        void sample(int series, long timestampMillis, double value);
+    }
+
+    public static final int DEFAULT_BLOCK_BYTES = 1024;
+    public static final int DEFAULT_BLOCKS_PER_SERIES = 16;
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 1000;
+    public static final long DEFAULT_FILE_BYTES = 256L << 20;
+
+    // --- Block Header Layout ---
+    private static final int FIRST_TIMESTAMP = 0;
+    private static final int LAST_TIMESTAMP = 8;
+    private static final int MIN = 16;
+    private static final int MAX = 24;
+    private static final int SUM = 32;
+    private static final int SERIES = 40;
+    private static final int COUNT = 44;
+    private static final int BITS = 48;
+    private static final int HEADER_BYTES = 56;
+    // Worst case: 4 + 32 timestamp bits, 2 + 6 + 6 + 64 value bits.
+    private static final int MAX_SAMPLE_BITS = 114;
+
+    // --- Flush File Layout ---
+    private static final int FILE_MAGIC = 0x4D424853; // "MBHS"
+    private static final short FILE_VERSION = 1;
+    private static final int FILE_HEADER_BYTES = 16;
+    private static final String FILE_PREFIX = "historian-";
+    private static final String FILE_SUFFIX = ".mbhist";
+    private static final String SERIES_FILE = "series.csv";
+
+    private static final int LOCK_STRIPES = 256;
+    private static final int MAX_ARENA_BYTES = 1 << 30;
+
+    // --- Off-Heap Storage ---
+    private final int maxSeries;
+    private final int blockBytes;
+    private final int blocksPerSeries;
+    private final int payloadBits;
+    private final int seriesBytes;
+    private final int seriesPerArena;
+    private final ByteBuffer[] arenas;
+    private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+
+    // --- Series Registry (guarded by seriesIds) ---
+    private final Map<String, Integer> seriesIds = new HashMap<>();
+    private final String[] seriesNames;
+    private volatile int seriesCount = 0;
+
+    // --- Encoder State per Series (guarded by the series' lock) ---
+    private final long[] headBlock; // sequence number of the block being appended to
+    private final long[] previousTimestamp;
+    private final long[] previousDelta;
+    private final long[] previousValueBits;
+    private final byte[] previousLeading; // -1 until the first XOR window is written
+    private final byte[] previousTrailing;
+    private final long[] flushedBlocks; // blocks below this sequence are on disk or lost
+    private final LongAdder lostBlocks = new LongAdder();
+    private volatile boolean closed = false;
+
+    // --- Flush State (guarded by flushLock) ---
+    private final Path flushDirectory;
+    private final long fileBytes;
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final ByteBuffer flushBuffer;
+    private final ScheduledExecutorService flusher;
+    private FileChannel file;
+    private int fileIndex = -1;
+
+    public ModbusHistorian(int maxSeries) throws IOException {
+        this(maxSeries, DEFAULT_BLOCK_BYTES, DEFAULT_BLOCKS_PER_SERIES, null);
+    }
+
+    public ModbusHistorian(int maxSeries, int blockBytes, int blocksPerSeries, Path flushDirectory)
+            throws IOException {
+        this(maxSeries, blockBytes, blocksPerSeries, flushDirectory, DEFAULT_FLUSH_INTERVAL_MILLIS,
+                DEFAULT_FILE_BYTES);
+    }
+
+    public ModbusHistorian(int maxSeries, int blockBytes, int blocksPerSeries, Path flushDirectory,
+            long flushIntervalMillis, long fileBytes) throws IOException {
+        if (maxSeries < 1) {
+            throw new IllegalArgumentException("maxSeries must be at least 1, but was " + maxSeries);
+        }
+        if (blockBytes < 256 || blockBytes > 1 << 20) {
+            throw new IllegalArgumentException("Block size must be between 256 bytes and 1 MB, but was " + blockBytes);
+        }
+        if (blocksPerSeries < 2) {
+            throw new IllegalArgumentException("blocksPerSeries must be at least 2, but was " + blocksPerSeries);
+        }
+        if ((long) blocksPerSeries * blockBytes > MAX_ARENA_BYTES) {
+            throw new IllegalArgumentException("A series may use at most " + MAX_ARENA_BYTES + " bytes");
+        }
+        this.maxSeries = maxSeries;
+        this.blockBytes = blockBytes;
+        this.blocksPerSeries = blocksPerSeries;
+        this.payloadBits = (blockBytes - HEADER_BYTES) * 8;
+        this.seriesBytes = blocksPerSeries * blockBytes;
+        this.seriesPerArena = Math.min(maxSeries, MAX_ARENA_BYTES / seriesBytes);
+
+        // allocateDirect zero-fills, so every block starts with a count of 0.
+        this.arenas = new ByteBuffer[(maxSeries + seriesPerArena - 1) / seriesPerArena];
+        for (int i = 0; i < arenas.length; i++) {
+            int seriesInArena = Math.min(seriesPerArena, maxSeries - i * seriesPerArena);
+            arenas[i] = ByteBuffer.allocateDirect(seriesInArena * seriesBytes);
+        }
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+
+        this.seriesNames = new String[maxSeries];
+        this.headBlock = new long[maxSeries];
+        this.previousTimestamp = new long[maxSeries];
+        this.previousDelta = new long[maxSeries];
+        this.previousValueBits = new long[maxSeries];
+        this.previousLeading = new byte[maxSeries];
+        this.previousTrailing = new byte[maxSeries];
+        this.flushedBlocks = new long[maxSeries];
+
+        this.flushDirectory = flushDirectory;
+        this.fileBytes = fileBytes;
+        if (flushDirectory == null) {
+            this.flushBuffer = null;
+            this.flusher = null;
+            return;
+        }
+        if (fileBytes < FILE_HEADER_BYTES + blockBytes) {
+            throw new IllegalArgumentException("File size must hold at least one block, but was " + fileBytes);
+        }
+        Files.createDirectories(flushDirectory);
+        loadSeriesNames();
+        this.fileIndex = lastFileIndex(flushDirectory);
+        this.flushBuffer = ByteBuffer.allocateDirect(Math.min(64, blocksPerSeries) * blockBytes);
+        this.flusher = Executors.newSingleThreadScheduledExecutor(
+                ModbusConnectionPool.daemonThreads("modbus-historian-flush"));
+        this.flusher.scheduleWithFixedDelay(this::backgroundFlush, flushIntervalMillis, flushIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    // ========================================================================
+    // Section: Series Registry
+    // ========================================================================
+
+    // Returns the ID for name, registering it on first use.
+    public int series(String name) throws IllegalArgumentException {
+        if (name == null || name.isEmpty() || name.indexOf('\n') >= 0) {
+            throw new IllegalArgumentException("Invalid series name: " + name);
+        }
+        synchronized (seriesIds) {
+            Integer id = seriesIds.get(name);
+            if (id != null) {
+                return id;
+            }
+            if (seriesCount == maxSeries) {
+                throw new IllegalArgumentException("Historian is full: " + maxSeries + " series");
+            }
+            int created = seriesCount;
+            if (flushDirectory != null) {
+                try {
+                    Files.writeString(flushDirectory.resolve(SERIES_FILE), created + "," + name + "\n",
+                            StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Could not record series " + name, e);
+                }
+            }
+            seriesNames[created] = name;
+            seriesIds.put(name, created);
+            seriesCount = created + 1;
+            return created;
+        }
+    }
+
+    public String getSeriesName(int series) {
+        checkSeries(series);
+        return seriesNames[series];
+    }
+
+    public int getSeriesCount() {
+        return seriesCount;
+    }
+
+    private void loadSeriesNames() throws IOException {
+        Path names = flushDirectory.resolve(SERIES_FILE);
+        if (!Files.exists(names)) {
+            return;
+        }
+        for (String line : Files.readAllLines(names, StandardCharsets.UTF_8)) {
+            int comma = line.indexOf(',');
+            if (comma < 0) {
+                continue;
+            }
+            int id = Integer.parseInt(line.substring(0, comma));
+            if (id != seriesCount || id >= maxSeries) {
+                throw new IOException("Series file " + names + " does not fit this historian at ID " + id);
+            }
+            seriesNames[id] = line.substring(comma + 1);
+            seriesIds.put(seriesNames[id], id);
+            seriesCount = id + 1;
+        }
+    }
+
+    private void checkSeries(int series) {
+        if (series < 0 || series >= seriesCount) {
+            throw new IllegalArgumentException("Unknown series ID: " + series);
+        }
+    }
+
+    private ReentrantLock lockFor(int series) {
+        return locks[series & (LOCK_STRIPES - 1)];
+    }
+
+    private ByteBuffer arenaFor(int series) {
+        return arenas[series / seriesPerArena];
+    }
+
+    private int blockOffset(int series, long sequence) {
+        return (series % seriesPerArena) * seriesBytes + (int) (sequence % blocksPerSeries) * blockBytes;
+    }
+
+    // --- End of Series Registry Section ---
+
+    // ========================================================================
+    // Section: Recording
+    // ========================================================================
+
+    /*
+     * Note:
+     * Samples of one series must arrive in time order; equal timestamps are
+     * fine. Recording never blocks on the flusher for longer than it takes
+     * to copy one batch of blocks.
+     */
+    public void record(int series, long timestampMillis, double value) {
+        checkSeries(series);
+        if (closed) {
+            throw new IllegalStateException("Historian is closed");
+        }
+        ReentrantLock lock = lockFor(series);
+        lock.lock();
+        try {
+            append(series, timestampMillis, value);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Note:
+     * Feeds a ModbusPoller group straight into the historian: one series per
+     * address, named device + "." + address, stamped with the time the scan
+     * was delivered. Coils are stored as 0 and 1.
+     */
+    public ModbusPoller.ScanListener scanListener(String deviceName, Collection<String> plcAddresses) {
+        String[] addresses = plcAddresses.toArray(new String[0]);
+        int[] ids = new int[addresses.length];
+        boolean[] coils = new boolean[addresses.length];
+        for (int i = 0; i < addresses.length; i++) {
+            ids[i] = series(deviceName + "." + addresses[i]);
+            coils[i] = ModbusTagRegistry.isCoil(ModbusTagRegistry.compile(addresses[i]));
+        }
+        return result -> {
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < addresses.length; i++) {
+                double value = coils[i] ? (result.getCoil(addresses[i]) ? 1 : 0) : result.getRegister(addresses[i]);
+                record(ids[i], now, value);
+            }
+        };
+    }
+
+    private void append(int series, long timestamp, double value) {
+        ByteBuffer arena = arenaFor(series);
+        int block = blockOffset(series, headBlock[series]);
+        int count = arena.getInt(block + COUNT);
+        long valueBits = Double.doubleToRawLongBits(value);
+        if (count == 0) {
+            startBlock(arena, block, series, timestamp, value, valueBits);
+            return;
+        }
+        if (timestamp < previousTimestamp[series]) {
+            throw new IllegalArgumentException("Samples must be recorded in time order, but " + timestamp
+                    + " is before " + previousTimestamp[series] + " for " + seriesNames[series]);
+        }
+        long delta = timestamp - previousTimestamp[series];
+        long deltaOfDelta = delta - previousDelta[series];
+        int bits = arena.getInt(block + BITS);
+        if (bits + MAX_SAMPLE_BITS > payloadBits || deltaOfDelta != (int) deltaOfDelta) {
+            sealBlock(series);
+            startBlock(arena, blockOffset(series, headBlock[series]), series, timestamp, value, valueBits);
+            return;
+        }
+
+        int payload = block + HEADER_BYTES;
+        bits = writeTimestamp(arena, payload, bits, (int) deltaOfDelta);
+        bits = writeValue(arena, payload, bits, series, valueBits);
+        arena.putInt(block + BITS, bits);
+        arena.putInt(block + COUNT, count + 1);
+        arena.putLong(block + LAST_TIMESTAMP, timestamp);
+        arena.putDouble(block + MIN, Math.min(arena.getDouble(block + MIN), value));
+        arena.putDouble(block + MAX, Math.max(arena.getDouble(block + MAX), value));
+        arena.putDouble(block + SUM, arena.getDouble(block + SUM) + value);
+        previousTimestamp[series] = timestamp;
+        previousDelta[series] = delta;
+        previousValueBits[series] = valueBits;
+    }
+
+    // The first sample of a block is stored raw so every block decodes on its own.
+    private void startBlock(ByteBuffer arena, int block, int series, long timestamp, double value, long valueBits) {
+        arena.putLong(block + FIRST_TIMESTAMP, timestamp);
+        arena.putLong(block + LAST_TIMESTAMP, timestamp);
+        arena.putDouble(block + MIN, value);
+        arena.putDouble(block + MAX, value);
+        arena.putDouble(block + SUM, value);
+        arena.putInt(block + SERIES, series);
+        arena.putInt(block + COUNT, 1);
+        int payload = block + HEADER_BYTES;
+        writeBits(arena, payload, 0, timestamp, 64);
+        writeBits(arena, payload, 64, valueBits, 64);
+        arena.putInt(block + BITS, 128);
+        previousTimestamp[series] = timestamp;
+        previousDelta[series] = 0;
+        previousValueBits[series] = valueBits;
+        previousLeading[series] = -1;
+        previousTrailing[series] = 0;
+    }
+
+    // Moves to the next block in the ring; the block it replaces is lost if it was never flushed.
+    private void sealBlock(int series) {
+        long next = ++headBlock[series];
+        long overwritten = next - blocksPerSeries;
+        if (flushDirectory != null && overwritten >= flushedBlocks[series]) {
+            lostBlocks.add(overwritten - flushedBlocks[series] + 1);
+            flushedBlocks[series] = overwritten + 1;
+        }
+        arenaFor(series).putInt(blockOffset(series, next) + COUNT, 0);
+    }
+
+    /*
+     * Note:
+     * Delta-of-delta buckets from the Gorilla paper:
+     *   0                  '0'
+     *   [-63, 64]          '10'   + 7 bits
+     *   [-255, 256]        '110'  + 9 bits
+     *   [-2047, 2048]      '1110' + 12 bits
+     *   anything else      '1111' + 32 bits
+     */
+    private static int writeTimestamp(ByteBuffer arena, int payload, int bits, int deltaOfDelta) {
+        if (deltaOfDelta == 0) {
+            return writeBits(arena, payload, bits, 0, 1);
+        }
+        if (deltaOfDelta >= -63 && deltaOfDelta <= 64) {
+            bits = writeBits(arena, payload, bits, 0b10, 2);
+            return writeBits(arena, payload, bits, deltaOfDelta + 63, 7);
+        }
+        if (deltaOfDelta >= -255 && deltaOfDelta <= 256) {
+            bits = writeBits(arena, payload, bits, 0b110, 3);
+            return writeBits(arena, payload, bits, deltaOfDelta + 255, 9);
+        }
+        if (deltaOfDelta >= -2047 && deltaOfDelta <= 2048) {
+            bits = writeBits(arena, payload, bits, 0b1110, 4);
+            return writeBits(arena, payload, bits, deltaOfDelta + 2047, 12);
+        }
+        bits = writeBits(arena, payload, bits, 0b1111, 4);
+        return writeBits(arena, payload, bits, deltaOfDelta & 0xFFFFFFFFL, 32);
+    }
+
+    /*
+     * Note:
+     * XOR with the previous value: '0' if equal; '10' + the meaningful bits if
+     * they fit the previous leading/trailing-zero window; otherwise '11', 6
+     * bits of leading zeros, 6 bits of (length - 1) and the meaningful bits.
+     */
+    private int writeValue(ByteBuffer arena, int payload, int bits, int series, long valueBits) {
+        long xor = valueBits ^ previousValueBits[series];
+        if (xor == 0) {
+            return writeBits(arena, payload, bits, 0, 1);
+        }
+        int leading = Long.numberOfLeadingZeros(xor);
+        int trailing = Long.numberOfTrailingZeros(xor);
+        int windowLeading = previousLeading[series];
+        int windowTrailing = previousTrailing[series];
+        if (windowLeading >= 0 && leading >= windowLeading && trailing >= windowTrailing) {
+            bits = writeBits(arena, payload, bits, 0b10, 2);
+            return writeBits(arena, payload, bits, xor >>> windowTrailing, 64 - windowLeading - windowTrailing);
+        }
+        int length = 64 - leading - trailing;
+        bits = writeBits(arena, payload, bits, 0b11, 2);
+        bits = writeBits(arena, payload, bits, leading, 6);
+        bits = writeBits(arena, payload, bits, length - 1, 6);
+        bits = writeBits(arena, payload, bits, xor >>> trailing, length);
+        previousLeading[series] = (byte) leading;
+        previousTrailing[series] = (byte) trailing;
+        return bits;
+    }
+
+    // Writes the low n bits of value, most significant first, at bit position bitPos; returns the new position.
+    private static int writeBits(ByteBuffer buffer, int payload, int bitPos, long value, int n) {
+        while (n > 0) {
+            int index = payload + (bitPos >>> 3);
+            int used = bitPos & 7;
+            int free = 8 - used;
+            int take = Math.min(free, n);
+            int chunk = (int) (value >>> (n - take)) & ((1 << take) - 1);
+            // A byte is cleared when first touched, so stale bits from an overwritten block never leak in.
+            int current = used == 0 ? 0 : buffer.get(index);
+            buffer.put(index, (byte) (current | (chunk << (free - take))));
+            bitPos += take;
+            n -= take;
+        }
+        return bitPos;
+    }
+
+    // --- End of Recording Section ---
+
+    // ========================================================================
+    // Section: Queries
+    // Purpose: Range scans over the in-memory window. Older data is in the
+    // flushed files (see scanFile). Ranges are [fromMillis, toMillis).
+    // ========================================================================
+
+    public static final class Summary {
+        private final long count;
+        private final double min;
+        private final double max;
+        private final double sum;
+        private final long firstTimestamp;
+        private final long lastTimestamp;
+
+        private Summary(long count, double min, double max, double sum, long firstTimestamp, long lastTimestamp) {
+            this.count = count;
+            this.min = min;
+            this.max = max;
+            this.sum = sum;
+            this.firstTimestamp = firstTimestamp;
+            this.lastTimestamp = lastTimestamp;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        // NaN when the window is empty, as are getMax() and getMean().
+        public double getMin() {
+            return count == 0 ? Double.NaN : min;
+        }
+
+        public double getMax() {
+            return count == 0 ? Double.NaN : max;
+        }
+
+        public double getMean() {
+            return count == 0 ? Double.NaN : sum / count;
+        }
+
+        public long getFirstTimestamp() {
+            return firstTimestamp;
+        }
+
+        public long getLastTimestamp() {
+            return lastTimestamp;
+        }
+    }
+
+    // Visits every sample in the window, oldest first, under the series lock; keep the visitor short.
+    public void query(int series, long fromMillis, long toMillis, SampleVisitor visitor) {
+        checkSeries(series);
+        ReentrantLock lock = lockFor(series);
+        lock.lock();
+        try {
+            ByteBuffer arena = arenaFor(series);
+            BlockDecoder decoder = new BlockDecoder();
+            for (long sequence = oldestBlock(series); sequence <= headBlock[series]; sequence++) {
+                int block = blockOffset(series, sequence);
+                if (arena.getInt(block + COUNT) == 0 || arena.getLong(block + LAST_TIMESTAMP) < fromMillis
+                        || arena.getLong(block + FIRST_TIMESTAMP) >= toMillis) {
+                    continue;
+                }
+                decoder.reset(arena, block);
+                while (decoder.next()) {
+                    if (decoder.timestamp >= fromMillis && decoder.timestamp < toMillis) {
+                        visitor.sample(series, decoder.timestamp, decoder.value());
+                    }
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Blocks that lie wholly inside the window are summarized from their headers without decoding.
+    public Summary summarize(int series, long fromMillis, long toMillis) {
+        checkSeries(series);
+        long count = 0;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        double sum = 0;
+        long first = Long.MIN_VALUE;
+        long last = Long.MIN_VALUE;
+        ReentrantLock lock = lockFor(series);
+        lock.lock();
+        try {
+            ByteBuffer arena = arenaFor(series);
+            BlockDecoder decoder = new BlockDecoder();
+            for (long sequence = oldestBlock(series); sequence <= headBlock[series]; sequence++) {
+                int block = blockOffset(series, sequence);
+                int blockCount = arena.getInt(block + COUNT);
+                long blockFirst = arena.getLong(block + FIRST_TIMESTAMP);
+                long blockLast = arena.getLong(block + LAST_TIMESTAMP);
+                if (blockCount == 0 || blockLast < fromMillis || blockFirst >= toMillis) {
+                    continue;
+                }
+                if (blockFirst >= fromMillis && blockLast < toMillis) {
+                    count += blockCount;
+                    min = Math.min(min, arena.getDouble(block + MIN));
+                    max = Math.max(max, arena.getDouble(block + MAX));
+                    sum += arena.getDouble(block + SUM);
+                    first = first == Long.MIN_VALUE ? blockFirst : first;
+                    last = blockLast;
+                    continue;
+                }
+                decoder.reset(arena, block);
+                while (decoder.next()) {
+                    if (decoder.timestamp >= fromMillis && decoder.timestamp < toMillis) {
+                        double value = decoder.value();
+                        count++;
+                        min = Math.min(min, value);
+                        max = Math.max(max, value);
+                        sum += value;
+                        first = first == Long.MIN_VALUE ? decoder.timestamp : first;
+                        last = decoder.timestamp;
+                    }
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        return new Summary(count, min, max, sum, first, last);
+    }
+
+    // Copies the newest n samples, oldest first, into the arrays; returns how many were available.
+    public int lastN(int series, int n, long[] timestamps, double[] values) {
+        checkSeries(series);
+        if (n < 0 || timestamps.length < n || values.length < n) {
+            throw new IllegalArgumentException("Destination arrays must hold " + n + " samples");
+        }
+        ReentrantLock lock = lockFor(series);
+        lock.lock();
+        try {
+            ByteBuffer arena = arenaFor(series);
+            long oldest = oldestBlock(series);
+            long start = headBlock[series];
+            long available = 0;
+            for (; start >= oldest; start--) {
+                available += arena.getInt(blockOffset(series, start) + COUNT);
+                if (available >= n) {
+                    break;
+                }
+            }
+            start = Math.max(start, oldest);
+            long skip = Math.max(0, available - n);
+            int written = 0;
+            BlockDecoder decoder = new BlockDecoder();
+            for (long sequence = start; sequence <= headBlock[series]; sequence++) {
+                int block = blockOffset(series, sequence);
+                if (arena.getInt(block + COUNT) == 0) {
+                    continue;
+                }
+                decoder.reset(arena, block);
+                while (decoder.next()) {
+                    if (skip > 0) {
+                        skip--;
+                        continue;
+                    }
+                    timestamps[written] = decoder.timestamp;
+                    values[written] = decoder.value();
+                    written++;
+                }
+            }
+            return written;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Note:
+     * Splits [fromMillis, toMillis) into buckets of bucketMillis and fills
+     * min/max/mean per bucket (NaN where a bucket has no samples). Returns
+     * the number of buckets; the arrays must be at least that long.
+     */
+    public int downsample(int series, long fromMillis, long toMillis, long bucketMillis, double[] mins,
+            double[] maxs, double[] means) {
+        if (bucketMillis < 1 || toMillis <= fromMillis) {
+            throw new IllegalArgumentException("Invalid downsample window: [" + fromMillis + ", " + toMillis
+                    + ") in buckets of " + bucketMillis + " ms");
+        }
+        long bucketCount = (toMillis - fromMillis + bucketMillis - 1) / bucketMillis;
+        if (bucketCount > mins.length || bucketCount > maxs.length || bucketCount > means.length) {
+            throw new IllegalArgumentException("Destination arrays must hold " + bucketCount + " buckets");
+        }
+        int buckets = (int) bucketCount;
+        int[] counts = new int[buckets];
+        Arrays.fill(mins, 0, buckets, Double.POSITIVE_INFINITY);
+        Arrays.fill(maxs, 0, buckets, Double.NEGATIVE_INFINITY);
+        Arrays.fill(means, 0, buckets, 0);
+        query(series, fromMillis, toMillis, (id, timestamp, value) -> {
+            int bucket = (int) ((timestamp - fromMillis) / bucketMillis);
+            counts[bucket]++;
+            mins[bucket] = Math.min(mins[bucket], value);
+            maxs[bucket] = Math.max(maxs[bucket], value);
+            means[bucket] += value;
+        });
+        for (int i = 0; i < buckets; i++) {
+            if (counts[i] == 0) {
+                mins[i] = Double.NaN;
+                maxs[i] = Double.NaN;
+                means[i] = Double.NaN;
+            } else {
+                means[i] /= counts[i];
+            }
+        }
+        return buckets;
+    }
+
+    private long oldestBlock(int series) {
+        return Math.max(0, headBlock[series] - blocksPerSeries + 1);
+    }
+
+    // Walks the samples of one block in order.
+    private static final class BlockDecoder {
+        private ByteBuffer buffer;
+        private int payload;
+        private int bitPos;
+        private int remaining;
+        private boolean first;
+
+        long timestamp;
+        private long delta;
+        private long valueBits;
+        private int leading;
+        private int trailing;
+
+        void reset(ByteBuffer buffer, int block) {
+            this.buffer = buffer;
+            this.payload = block + HEADER_BYTES;
+            this.bitPos = 0;
+            this.remaining = buffer.getInt(block + COUNT);
+            this.first = true;
+        }
+
+        double value() {
+            return Double.longBitsToDouble(valueBits);
+        }
+
+        boolean next() {
+            if (remaining == 0) {
+                return false;
+            }
+            remaining--;
+            if (first) {
+                first = false;
+                timestamp = readBits(64);
+                valueBits = readBits(64);
+                delta = 0;
+                return true;
+            }
+            delta += readDeltaOfDelta();
+            timestamp += delta;
+            if (readBits(1) != 0) {
+                if (readBits(1) != 0) {
+                    leading = (int) readBits(6);
+                    int length = (int) readBits(6) + 1;
+                    trailing = 64 - leading - length;
+                }
+                valueBits ^= readBits(64 - leading - trailing) << trailing;
+            }
+            return true;
+        }
+
+        private long readDeltaOfDelta() {
+            if (readBits(1) == 0) {
+                return 0;
+            }
+            if (readBits(1) == 0) {
+                return readBits(7) - 63;
+            }
+            if (readBits(1) == 0) {
+                return readBits(9) - 255;
+            }
+            if (readBits(1) == 0) {
+                return readBits(12) - 2047;
+            }
+            return (int) readBits(32);
+        }
+
+        private long readBits(int n) {
+            long value = 0;
+            while (n > 0) {
+                int used = bitPos & 7;
+                int available = 8 - used;
+                int take = Math.min(available, n);
+                int chunk = ((buffer.get(payload + (bitPos >>> 3)) & 0xFF) >>> (available - take)) & ((1 << take) - 1);
+                value = (value << take) | chunk;
+                bitPos += take;
+                n -= take;
+            }
+            return value;
+        }
+    }
+
+    // --- End of Queries Section ---
+
+    // ========================================================================
+    // Section: Flushing
+    // ========================================================================
+
+    /*
+     * Note:
+     * Appends every sealed block not yet on disk. Blocks are copied into one
+     * direct buffer under the series lock and written without it, so
+     * recording never waits on the disk. A block overwritten before the
+     * flusher reached it is counted in getLostBlockCount().
+     */
+    public void flush() throws IOException {
+        flush(false);
+    }
+
+    private void flush(boolean includeActive) throws IOException {
+        if (flushDirectory == null) {
+            return;
+        }
+        flushLock.lock();
+        try {
+            int count = seriesCount;
+            for (int series = 0; series < count; series++) {
+                boolean more = true;
+                while (more) {
+                    more = copyUnflushed(series, includeActive);
+                    if (flushBuffer.position() > 0) {
+                        writeFlushBuffer();
+                    }
+                }
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    // Copies as many unflushed blocks as fit; returns true if more remain.
+    private boolean copyUnflushed(int series, boolean includeActive) {
+        ReentrantLock lock = lockFor(series);
+        lock.lock();
+        try {
+            ByteBuffer arena = arenaFor(series);
+            long end = includeActive ? headBlock[series] + 1 : headBlock[series];
+            long sequence = Math.max(flushedBlocks[series], oldestBlock(series));
+            for (; sequence < end && flushBuffer.remaining() >= blockBytes; sequence++) {
+                int block = blockOffset(series, sequence);
+                if (arena.getInt(block + COUNT) == 0) {
+                    continue;
+                }
+                flushBuffer.put(flushBuffer.position(), arena, block, blockBytes);
+                flushBuffer.position(flushBuffer.position() + blockBytes);
+            }
+            flushedBlocks[series] = Math.max(flushedBlocks[series], sequence);
+            return sequence < end;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void writeFlushBuffer() throws IOException {
+        flushBuffer.flip();
+        try {
+            if (file == null || file.size() + flushBuffer.remaining() > fileBytes) {
+                openNextFile();
+            }
+            while (flushBuffer.hasRemaining()) {
+                file.write(flushBuffer);
+            }
+        } finally {
+            flushBuffer.clear();
+        }
+    }
+
+    private void openNextFile() throws IOException {
+        if (file != null) {
+            file.force(false);
+            file.close();
+        }
+        fileIndex++;
+        Path path = flushDirectory.resolve(String.format("%s%06d%s", FILE_PREFIX, fileIndex, FILE_SUFFIX));
+        file = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_BYTES);
+        header.putInt(FILE_MAGIC).putShort(FILE_VERSION).putShort((short) FILE_HEADER_BYTES).putInt(blockBytes)
+                .putInt(0).flip();
+        while (header.hasRemaining()) {
+            file.write(header);
+        }
+    }
+
+    private void backgroundFlush() {
+        try {
+            flush(false);
+        } catch (IOException | RuntimeException e) {
+            ModbusLog.error("Historian flush to " + flushDirectory + " failed: " + e.getMessage());
+        }
+    }
+
+    public long getLostBlockCount() {
+        return lostBlocks.sum();
+    }
+
+    public long getMemoryBytes() {
+        long total = 0;
+        for (ByteBuffer arena : arenas) {
+            total += arena.capacity();
+        }
+        return total;
+    }
+
+    // Stops the flusher and writes everything still in memory, including unsealed blocks.
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (flusher == null) {
+            return;
+        }
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushLock.lock();
+        try {
+            flush(true);
+            if (file != null) {
+                file.force(false);
+                file.close();
+                file = null;
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private static int lastFileIndex(Path directory) throws IOException {
+        List<Path> files = listFiles(directory);
+        if (files.isEmpty()) {
+            return -1;
+        }
+        String name = files.get(files.size() - 1).getFileName().toString();
+        return Integer.parseInt(name.substring(FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length()));
+    }
+
+    public static List<Path> listFiles(Path directory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> entries = Files.list(directory)) {
+            entries.filter(path -> {
+                String name = path.getFileName().toString();
+                return name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX);
+            }).sorted().forEach(files::add);
+        }
+        return files;
+    }
+
+    // Visits every sample in a flushed file, block by block; series IDs match series.csv.
+    public static void scanFile(Path path, SampleVisitor visitor) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (mapped.limit() < FILE_HEADER_BYTES || mapped.getInt(0) != FILE_MAGIC) {
+                throw new IOException("Not a Modbus historian file: " + path);
+            }
+            if (mapped.getShort(4) != FILE_VERSION) {
+                throw new IOException("Unsupported historian file version " + mapped.getShort(4) + " in " + path);
+            }
+            int blockSize = mapped.getInt(8);
+            BlockDecoder decoder = new BlockDecoder();
+            for (int block = mapped.getShort(6); block + blockSize <= mapped.limit(); block += blockSize) {
+                int series = mapped.getInt(block + SERIES);
+                decoder.reset(mapped, block);
+                while (decoder.next()) {
+                    visitor.sample(series, decoder.timestamp, decoder.value());
+                }
+            }
+        }
+    }
+
+    // --- End of Flushing Section ---
+}
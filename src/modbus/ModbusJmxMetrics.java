@@ -0,0 +1,295 @@
+package modbus;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * ============================================================================
+ * Modbus JMX Metrics - Default ModbusMetrics Implementation
+ * ============================================================================
+ * Keeps per-endpoint (host:port) gauges and, below each endpoint, one set of
+ * counters and a ModbusLatencyHistogram per unit ID and function code. Every
+ * set is registered as an MXBean the first time it is used:
+ *
+ *   modbus:type=Endpoint,endpoint="host:port"
+ *   modbus:type=Operation,endpoint="host:port",unit=1,function=03
+ *
+ * Recording goes through plain array lookups and atomic adders, so it takes
+ * no locks and allocates nothing once an operation has been seen.
+ * Registration failures are logged once and do not affect recording.
+ */
+public class ModbusJmxMetrics implements ModbusMetrics {
+
+    private static final ModbusJmxMetrics DEFAULT = new ModbusJmxMetrics(ManagementFactory.getPlatformMBeanServer(),
+            "modbus");
+
+    // Function codes with their own statistics; every other code shares slot 0.
+    private static final int[] TRACKED_FUNCTION_CODES = { 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x0F, 0x10, 0x17,
+            0x2B };
+    private static final int FUNCTION_SLOTS = TRACKED_FUNCTION_CODES.length + 1;
+    private static final byte[] FUNCTION_SLOT = new byte[128];
+
+    static {
+        for (int i = 0; i < TRACKED_FUNCTION_CODES.length; i++) {
+            FUNCTION_SLOT[TRACKED_FUNCTION_CODES[i]] = (byte) (i + 1);
+        }
+    }
+
+    private final MBeanServer mbeanServer;
+    private final String domain;
+    private final ConcurrentHashMap<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+    public ModbusJmxMetrics(MBeanServer mbeanServer, String domain) {
+        this.mbeanServer = mbeanServer;
+        this.domain = domain;
+    }
+
+    public static ModbusJmxMetrics getDefault() {
+        return DEFAULT;
+    }
+
+    @Override
+    public Recorder forEndpoint(String host, int port) {
+        String name = host + ":" + port;
+        return endpoints.computeIfAbsent(name, Endpoint::new);
+    }
+
+    // Statistics for one unit and function code, or null if none were recorded yet.
+    public OperationMXBean getOperation(String host, int port, int unitId, int functionCode) {
+        Endpoint endpoint = endpoints.get(host + ":" + port);
+        return endpoint == null ? null : endpoint.operations.get(operationIndex(unitId, functionCode));
+    }
+
+    public EndpointMXBean getEndpoint(String host, int port) {
+        return endpoints.get(host + ":" + port);
+    }
+
+    private static int operationIndex(int unitId, int functionCode) {
+        return (unitId & 0xFF) * FUNCTION_SLOTS + FUNCTION_SLOT[functionCode & 0x7F];
+    }
+
+    private void register(Object mbean, String properties) {
+        if (mbeanServer == null) {
+            return;
+        }
+        try {
+            mbeanServer.registerMBean(mbean, new ObjectName(domain + ":" + properties));
+        } catch (Exception e) {
+            ModbusLog.error("Could not register Modbus metrics MBean " + properties + ": " + e.getMessage());
+        }
+    }
+
+    // ========================================================================
+    // Section: MXBean Interfaces
+    // ========================================================================
+
+    public interface EndpointMXBean {
+        int getInFlight();
+
+        long getTransactionCount();
+
+        long getReconnectCount();
+    }
+
+    public interface OperationMXBean {
+        long getRequestCount();
+
+        long getFailureCount();
+
+        long getTimeoutCount();
+
+        long getBytesSent();
+
+        long getBytesReceived();
+
+        // Exception replies by code, e.g. "0x02" -> 5.
+        Map<String, Long> getExceptionCounts();
+
+        double getMeanMicros();
+
+        double getP50Micros();
+
+        double getP90Micros();
+
+        double getP99Micros();
+
+        double getP999Micros();
+
+        double getMaxMicros();
+    }
+
+    // --- End of MXBean Interfaces Section ---
+
+    // ========================================================================
+    // Section: Endpoint and Operation Statistics
+    // ========================================================================
+
+    private final class Endpoint implements Recorder, EndpointMXBean {
+        private final String name;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final LongAdder transactions = new LongAdder();
+        private final LongAdder reconnects = new LongAdder();
+        private final AtomicReferenceArray<Operation> operations = new AtomicReferenceArray<>(256 * FUNCTION_SLOTS);
+
+        Endpoint(String name) {
+            this.name = name;
+            register(this, "type=Endpoint,endpoint=" + ObjectName.quote(name));
+        }
+
+        @Override
+        public void transactionStarted() {
+            inFlight.incrementAndGet();
+        }
+
+        @Override
+        public void transactionCompleted(int unitId, int functionCode, long latencyNanos, int requestBytes,
+                int responseBytes, int exceptionCode) {
+            inFlight.decrementAndGet();
+            transactions.increment();
+            Operation operation = operation(unitId, functionCode);
+            operation.requests.increment();
+            operation.bytesSent.add(requestBytes);
+            operation.bytesReceived.add(responseBytes);
+            operation.latency.recordValue(latencyNanos);
+            if (exceptionCode != 0) {
+                operation.exceptions.incrementAndGet(exceptionCode & 0xFF);
+            }
+        }
+
+        @Override
+        public void transactionFailed(int unitId, int functionCode, long latencyNanos, boolean timedOut) {
+            inFlight.decrementAndGet();
+            transactions.increment();
+            Operation operation = operation(unitId, functionCode);
+            operation.requests.increment();
+            operation.failures.increment();
+            if (timedOut) {
+                operation.timeouts.increment();
+            }
+        }
+
+        @Override
+        public void reconnected() {
+            reconnects.increment();
+        }
+
+        private Operation operation(int unitId, int functionCode) {
+            int index = operationIndex(unitId, functionCode);
+            Operation operation = operations.get(index);
+            if (operation != null) {
+                return operation;
+            }
+            Operation created = new Operation();
+            if (operations.compareAndSet(index, null, created)) {
+                int slot = FUNCTION_SLOT[functionCode & 0x7F];
+                String function = slot == 0 ? "other" : String.format("%02X", TRACKED_FUNCTION_CODES[slot - 1]);
+                register(created, "type=Operation,endpoint=" + ObjectName.quote(name) + ",unit=" + (unitId & 0xFF)
+                        + ",function=" + function);
+                return created;
+            }
+            return operations.get(index);
+        }
+
+        @Override
+        public int getInFlight() {
+            return inFlight.get();
+        }
+
+        @Override
+        public long getTransactionCount() {
+            return transactions.sum();
+        }
+
+        @Override
+        public long getReconnectCount() {
+            return reconnects.sum();
+        }
+    }
+
+    private static final class Operation implements OperationMXBean {
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder timeouts = new LongAdder();
+        private final LongAdder bytesSent = new LongAdder();
+        private final LongAdder bytesReceived = new LongAdder();
+        private final AtomicLongArray exceptions = new AtomicLongArray(256);
+        private final ModbusLatencyHistogram latency = new ModbusLatencyHistogram();
+
+        @Override
+        public long getRequestCount() {
+            return requests.sum();
+        }
+
+        @Override
+        public long getFailureCount() {
+            return failures.sum();
+        }
+
+        @Override
+        public long getTimeoutCount() {
+            return timeouts.sum();
+        }
+
+        @Override
+        public long getBytesSent() {
+            return bytesSent.sum();
+        }
+
+        @Override
+        public long getBytesReceived() {
+            return bytesReceived.sum();
+        }
+
+        @Override
+        public Map<String, Long> getExceptionCounts() {
+            Map<String, Long> counts = new LinkedHashMap<>();
+            for (int code = 1; code < exceptions.length(); code++) {
+                long count = exceptions.get(code);
+                if (count > 0) {
+                    counts.put(String.format("0x%02X", code), count);
+                }
+            }
+            return counts;
+        }
+
+        @Override
+        public double getMeanMicros() {
+            return latency.getMean() / 1000.0;
+        }
+
+        @Override
+        public double getP50Micros() {
+            return latency.getValueAtPercentile(50) / 1000.0;
+        }
+
+        @Override
+        public double getP90Micros() {
+            return latency.getValueAtPercentile(90) / 1000.0;
+        }
+
+        @Override
+        public double getP99Micros() {
+            return latency.getValueAtPercentile(99) / 1000.0;
+        }
+
+        @Override
+        public double getP999Micros() {
+            return latency.getValueAtPercentile(99.9) / 1000.0;
+        }
+
+        @Override
+        public double getMaxMicros() {
+            return latency.getMaxValue() / 1000.0;
+        }
+    }
+
+    // --- End of Endpoint and Operation Statistics Section ---
+}
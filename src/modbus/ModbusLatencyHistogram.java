@@ -0,0 +1,94 @@
+package modbus;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ============================================================================
+ * Modbus Latency Histogram - Lock-Free Log-Linear Histogram (HDR Style)
+ * ============================================================================
+ * Records non-negative values (nanoseconds here) into buckets that split
+ * every power of two into 16 linear sub-buckets, so any percentile is
+ * reported within 6.25% of the true value over the full long range. Values
+ * below 16 are exact. recordValue() is one array increment plus two adders
+ * and a max update: no locks, no allocation. Readers see a consistent-enough
+ * snapshot for monitoring; counts recorded during a read may or may not be
+ * included.
+ */
+public class ModbusLatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = indexOf(Long.MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder totalCount = new LongAdder();
+    private final LongAdder totalValue = new LongAdder();
+    private final AtomicLong maxValue = new AtomicLong();
+
+    public void recordValue(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(indexOf(value));
+        totalCount.increment();
+        totalValue.add(value);
+        long max = maxValue.get();
+        while (value > max && !maxValue.compareAndSet(max, value)) {
+            max = maxValue.get();
+        }
+    }
+
+    public long getTotalCount() {
+        return totalCount.sum();
+    }
+
+    public long getMaxValue() {
+        return maxValue.get();
+    }
+
+    public double getMean() {
+        long count = totalCount.sum();
+        return count == 0 ? 0 : totalValue.sum() / (double) count;
+    }
+
+    // Upper bound of the bucket holding the given percentile (0-100), capped at the max seen.
+    public long getValueAtPercentile(double percentile) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                long upper = i + 1 < BUCKETS ? lowestValueAt(i + 1) - 1 : Long.MAX_VALUE;
+                return Math.min(upper, maxValue.get());
+            }
+        }
+        return maxValue.get();
+    }
+
+    // Values below SUB_BUCKETS map to themselves; above, exponent group plus top 4 mantissa bits.
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return ((exponent - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) | subBucket;
+    }
+
+    static long lowestValueAt(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        return (long) (SUB_BUCKETS | (index & (SUB_BUCKETS - 1))) << shift;
+    }
+}
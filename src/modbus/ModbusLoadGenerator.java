@@ -0,0 +1,415 @@
+package modbus;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * ============================================================================
+ * Modbus Load Generator - Workload-Driven Stress Test for ModbusTCP
+ * ============================================================================
+ * Drives a server with a configurable mix of reads and writes from many
+ * virtual threads over a fixed set of connections, then reports throughput,
+ * latency percentiles and errors by Modbus exception code.
+ *
+ * With a target rate, requests are scheduled on a fixed timeline and latency
+ * is measured from each request's scheduled start, so time spent waiting
+ * behind a slow server counts against it instead of being hidden (no
+ * coordinated omission). Without one, every worker sends back to back.
+ * Failed and timed-out requests are timed as well. Each connection
+ * reconnects through a circuit breaker if it drops during the run.
+ *
+ * Workload keys (see configure()); defaults in brackets:
+ *   host [127.0.0.1], or "simulator" for a local ModbusServerSimulator
+ *   port [502]  unit [1]  timeout [3000] ms  pipeline [1]
+ *   connections [1]  concurrency [1]  rate [0 = unlimited] ops/s
+ *   duration [10] s  warmup [2] s
+ *   tags [D100:10]  comma-separated address:quantity[@weight]
+ *   writes [0]  fraction of operations that write the tag's first address
+ */
+public class ModbusLoadGenerator {
+
+    // --- Workload ---
+    private String host = "127.0.0.1";
+    private int port = 502;
+    private int unitId = 1;
+    private int timeoutMillis = 3000;
+    private int pipelineDepth = 1;
+    private int connections = 1;
+    private int concurrency = 1;
+    private double targetRate = 0;
+    private double durationSeconds = 10;
+    private double warmupSeconds = 2;
+    private double writeRatio = 0;
+    private final List<Tag> tags = new ArrayList<>();
+
+    // Short reconnect backoff: a load run lasts seconds, and a dropped connection should rejoin within it.
+    private static final long RECONNECT_INITIAL_BACKOFF_MILLIS = 100;
+    private static final long RECONNECT_MAX_BACKOFF_MILLIS = 2000;
+    // How long an unthrottled worker pauses while its connection is down, instead of spinning on failures.
+    private static final long DISCONNECTED_PAUSE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private static final class Tag {
+        final String address;
+        final int quantity;
+        final boolean coil;
+        final int weight;
+
+        Tag(String address, int quantity, int weight) {
+            this.address = address;
+            this.quantity = quantity;
+            this.coil = ModbusTagRegistry.isCoil(ModbusTagRegistry.compile(address));
+            this.weight = weight;
+        }
+    }
+
+    public ModbusLoadGenerator() {
+        tags.add(new Tag("D100", 10, 1));
+    }
+
+    // ========================================================================
+    // Section: Configuration
+    // ========================================================================
+
+    public void configure(Properties workload) throws IllegalArgumentException {
+        for (String key : workload.stringPropertyNames()) {
+            configure(key, workload.getProperty(key).trim());
+        }
+    }
+
+    public void configure(String key, String value) throws IllegalArgumentException {
+        try {
+            switch (key) {
+                case "host":
+                    host = value;
+                    break;
+                case "port":
+                    port = Integer.parseInt(value);
+                    break;
+                case "unit":
+                    unitId = Integer.parseInt(value);
+                    break;
+                case "timeout":
+                    timeoutMillis = Integer.parseInt(value);
+                    break;
+                case "pipeline":
+                    pipelineDepth = positive(key, Integer.parseInt(value));
+                    break;
+                case "connections":
+                    connections = positive(key, Integer.parseInt(value));
+                    break;
+                case "concurrency":
+                    concurrency = positive(key, Integer.parseInt(value));
+                    break;
+                case "rate":
+                    targetRate = Double.parseDouble(value);
+                    break;
+                case "duration":
+                    durationSeconds = Double.parseDouble(value);
+                    break;
+                case "warmup":
+                    warmupSeconds = Double.parseDouble(value);
+                    break;
+                case "writes":
+                    writeRatio = Double.parseDouble(value);
+                    if (writeRatio < 0 || writeRatio > 1) {
+                        throw new IllegalArgumentException("writes must be between 0 and 1, but was " + value);
+                    }
+                    break;
+                case "tags":
+                    setTags(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown workload key: " + key);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number for " + key + ": " + value);
+        }
+    }
+
+    // e.g. "D100:10@3,M0:16@1": D100..D109 three times as often as M0..M15.
+    public void setTags(String spec) throws IllegalArgumentException {
+        List<Tag> parsed = new ArrayList<>();
+        for (String entry : spec.split(",")) {
+            String item = entry.trim();
+            if (item.isEmpty()) {
+                continue;
+            }
+            int weight = 1;
+            int at = item.indexOf('@');
+            if (at >= 0) {
+                weight = positive("tag weight", Integer.parseInt(item.substring(at + 1)));
+                item = item.substring(0, at);
+            }
+            int quantity = 1;
+            int colon = item.indexOf(':');
+            if (colon >= 0) {
+                quantity = positive("tag quantity", Integer.parseInt(item.substring(colon + 1)));
+                item = item.substring(0, colon);
+            }
+            parsed.add(new Tag(item, quantity, weight));
+        }
+        if (parsed.isEmpty()) {
+            throw new IllegalArgumentException("Tag mix cannot be empty");
+        }
+        tags.clear();
+        tags.addAll(parsed);
+    }
+
+    public void setTarget(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    private static int positive(String key, int value) {
+        if (value < 1) {
+            throw new IllegalArgumentException(key + " must be at least 1, but was " + value);
+        }
+        return value;
+    }
+
+    public String describe() {
+        StringBuilder mix = new StringBuilder();
+        for (Tag tag : tags) {
+            mix.append(mix.length() == 0 ? "" : ",").append(tag.address).append(':').append(tag.quantity)
+                    .append('@').append(tag.weight);
+        }
+        return String.format("%d worker(s) on %d connection(s) to %s:%d unit %d, %s, %.0f%% writes, tags %s,"
+                + " %.1f s (+%.1f s warmup)", concurrency, connections, host, port, unitId,
+                targetRate > 0 ? String.format("target %.0f ops/s", targetRate) : "unthrottled",
+                writeRatio * 100, mix, durationSeconds, warmupSeconds);
+    }
+
+    // --- End of Configuration Section ---
+
+    // ========================================================================
+    // Section: Load Run
+    // ========================================================================
+
+    public Result run() throws IOException, InterruptedException {
+        if (host.equals("simulator")) {
+            try (ModbusServerSimulator simulator = new ModbusServerSimulator(0)) {
+                String configuredHost = host;
+                int configuredPort = port;
+                setTarget("127.0.0.1", simulator.getPort());
+                try {
+                    return runAgainstTarget();
+                } finally {
+                    setTarget(configuredHost, configuredPort);
+                }
+            }
+        }
+        return runAgainstTarget();
+    }
+
+    private Result runAgainstTarget() throws IOException, InterruptedException {
+        ModbusTCP[] clients = new ModbusTCP[connections];
+        try {
+            for (int i = 0; i < connections; i++) {
+                clients[i] = new ModbusTCP();
+                clients[i].setTimeout(timeoutMillis);
+                clients[i].setAutoReconnect(new ModbusCircuitBreaker(3, RECONNECT_INITIAL_BACKOFF_MILLIS,
+                        RECONNECT_MAX_BACKOFF_MILLIS));
+                if (pipelineDepth > 1) {
+                    clients[i].setPipelineDepth(pipelineDepth);
+                }
+                clients[i].connect(host, port);
+            }
+
+            int[] cumulativeWeights = new int[tags.size()];
+            int totalWeight = 0;
+            for (int i = 0; i < tags.size(); i++) {
+                totalWeight += tags.get(i).weight;
+                cumulativeWeights[i] = totalWeight;
+            }
+
+            Result result = new Result();
+            long intervalNanos = targetRate > 0 ? (long) (1e9 / targetRate) : 0;
+            long startNanos = System.nanoTime();
+            long measureFromNanos = startNanos + (long) (warmupSeconds * 1e9);
+            long endNanos = measureFromNanos + (long) (durationSeconds * 1e9);
+            AtomicLong nextSlot = new AtomicLong();
+
+            ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor();
+            for (int w = 0; w < concurrency; w++) {
+                ModbusTCP client = clients[w % connections];
+                int totalWeightFinal = totalWeight;
+                workers.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while (true) {
+                        long scheduled = intervalNanos > 0
+                                ? startNanos + nextSlot.getAndIncrement() * intervalNanos
+                                : System.nanoTime();
+                        if (scheduled >= endNanos) {
+                            return;
+                        }
+                        long wait;
+                        while ((wait = scheduled - System.nanoTime()) > 0) {
+                            LockSupport.parkNanos(wait);
+                        }
+                        Tag tag = pick(random.nextInt(totalWeightFinal), cumulativeWeights);
+                        boolean write = writeRatio > 0 && random.nextDouble() < writeRatio;
+                        boolean ok = execute(client, tag, write, random, scheduled, scheduled >= measureFromNanos,
+                                result);
+                        if (!ok && intervalNanos == 0 && !client.isConnected()) {
+                            LockSupport.parkNanos(DISCONNECTED_PAUSE_NANOS);
+                        }
+                    }
+                });
+            }
+            workers.shutdown();
+            if (!workers.awaitTermination((long) (warmupSeconds + durationSeconds) + timeoutMillis / 1000 + 60,
+                    TimeUnit.SECONDS)) {
+                workers.shutdownNow();
+            }
+            result.elapsedNanos = Math.max(1, Math.min(System.nanoTime(), endNanos) - measureFromNanos);
+            return result;
+        } finally {
+            for (ModbusTCP client : clients) {
+                if (client != null) {
+                    client.disconnect();
+                }
+            }
+        }
+    }
+
+    private Tag pick(int roll, int[] cumulativeWeights) {
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (roll < cumulativeWeights[i]) {
+                return tags.get(i);
+            }
+        }
+        return tags.get(tags.size() - 1);
+    }
+
+    // Returns false on an I/O error or timeout. Every outcome is timed from the scheduled start, so a
+    // stalling server shows up in the percentiles instead of dropping out of them.
+    private boolean execute(ModbusTCP client, Tag tag, boolean write, ThreadLocalRandom random, long scheduled,
+            boolean measured, Result result) {
+        try {
+            if (write && tag.coil) {
+                client.writeSingleCoil(unitId, tag.address, random.nextBoolean());
+            } else if (write) {
+                client.writeSingleRegister(unitId, tag.address, random.nextInt(0x10000));
+            } else if (tag.coil) {
+                client.readCoils(unitId, tag.address, tag.quantity);
+            } else {
+                client.readHoldingRegisters(unitId, tag.address, tag.quantity);
+            }
+            if (measured) {
+                result.latency.recordValue(System.nanoTime() - scheduled);
+                (write ? result.writes : result.reads).increment();
+            }
+            return true;
+        } catch (ModbusException e) {
+            if (measured) {
+                result.latency.recordValue(System.nanoTime() - scheduled);
+                result.exceptions.incrementAndGet(e.getExceptionCode() & 0xFF);
+            }
+            return true;
+        } catch (IOException | RuntimeException e) {
+            if (measured) {
+                result.latency.recordValue(System.nanoTime() - scheduled);
+                (isTimeout(e) ? result.timeouts : result.ioErrors).increment();
+            }
+            return false;
+        }
+    }
+
+    private static boolean isTimeout(Exception e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SocketTimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // --- End of Load Run Section ---
+
+    // ========================================================================
+    // Section: Result
+    // ========================================================================
+
+    public static final class Result {
+        private final ModbusLatencyHistogram latency = new ModbusLatencyHistogram();
+        private final LongAdder reads = new LongAdder();
+        private final LongAdder writes = new LongAdder();
+        private final LongAdder timeouts = new LongAdder();
+        private final LongAdder ioErrors = new LongAdder();
+        private final AtomicLongArray exceptions = new AtomicLongArray(256);
+        private long elapsedNanos;
+
+        public long getSuccessCount() {
+            return reads.sum() + writes.sum();
+        }
+
+        public double getThroughput() {
+            return getSuccessCount() / (elapsedNanos / 1e9);
+        }
+
+        public ModbusLatencyHistogram getLatency() {
+            return latency;
+        }
+
+        public long getTimeoutCount() {
+            return timeouts.sum();
+        }
+
+        public long getIoErrorCount() {
+            return ioErrors.sum();
+        }
+
+        // Modbus exception replies by code.
+        public Map<Integer, Long> getExceptionCounts() {
+            Map<Integer, Long> counts = new TreeMap<>();
+            for (int code = 0; code < exceptions.length(); code++) {
+                if (exceptions.get(code) > 0) {
+                    counts.put(code, exceptions.get(code));
+                }
+            }
+            return counts;
+        }
+
+        public long getErrorCount() {
+            long errors = timeouts.sum() + ioErrors.sum();
+            for (long count : getExceptionCounts().values()) {
+                errors += count;
+            }
+            return errors;
+        }
+
+        public String format() {
+            StringBuilder report = new StringBuilder();
+            report.append(String.format("ok %d (reads %d, writes %d) in %.2f s: %.1f ops/s%n", getSuccessCount(),
+                    reads.sum(), writes.sum(), elapsedNanos / 1e9, getThroughput()));
+            report.append(String.format("latency ms: p50 %.3f  p90 %.3f  p99 %.3f  p99.9 %.3f  max %.3f%n",
+                    latency.getValueAtPercentile(50) / 1e6, latency.getValueAtPercentile(90) / 1e6,
+                    latency.getValueAtPercentile(99) / 1e6, latency.getValueAtPercentile(99.9) / 1e6,
+                    latency.getMaxValue() / 1e6));
+            report.append(String.format("errors %d%n", getErrorCount()));
+            for (Map.Entry<Integer, Long> entry : getExceptionCounts().entrySet()) {
+                report.append(String.format("  0x%02X %s: %d%n", entry.getKey(),
+                        ModbusException.getModbusExceptionMessage((byte) (int) entry.getKey()), entry.getValue()));
+            }
+            if (timeouts.sum() > 0) {
+                report.append("  timeout: ").append(timeouts.sum()).append(System.lineSeparator());
+            }
+            if (ioErrors.sum() > 0) {
+                report.append("  I/O error: ").append(ioErrors.sum()).append(System.lineSeparator());
+            }
+            return report.toString();
+        }
+    }
+
+    // --- End of Result Section ---
+}
@@ -0,0 +1,97 @@
+package modbus;
+
+import modbus.ModbusLogger.Level;
+
+/**
+ * ============================================================================
+ * Modbus Log - Level-Checked Entry Point for Library Diagnostics
+ * ============================================================================
+ * Library code logs through these static methods instead of System.out and
+ * System.err. The level check is a single volatile int compare; on hot paths
+ * callers guard with isEnabled() so a disabled message is never even
+ * concatenated:
+ *
+ *   if (ModbusLog.isEnabled(Level.ERROR)) {
+ *       ModbusLog.error("Modbus read timeout after " + timeoutMillis + " ms.");
+ *   }
+ *
+ * Defaults to INFO into ModbusAsyncLogger.getDefault(), which prints the
+ * same "INFO: ..." / "ERROR: ..." lines as before without blocking callers.
+ */
+public final class ModbusLog {
+
+    private static volatile ModbusLogger logger = ModbusAsyncLogger.getDefault();
+    private static volatile int threshold = Level.INFO.ordinal();
+
+    private ModbusLog() {
+    }
+
+    // ========================================================================
+    // Section: Configuration
+    // ========================================================================
+
+    public static void setLogger(ModbusLogger newLogger) {
+        if (newLogger == null) {
+            throw new IllegalArgumentException("Logger cannot be null; use ModbusLogger.NONE to discard output");
+        }
+        logger = newLogger;
+    }
+
+    public static ModbusLogger getLogger() {
+        return logger;
+    }
+
+    // Messages below level are dropped before they are built; OFF disables logging entirely.
+    public static void setLevel(Level level) {
+        if (level == null) {
+            throw new IllegalArgumentException("Level cannot be null");
+        }
+        threshold = level.ordinal();
+    }
+
+    public static Level getLevel() {
+        return Level.values()[threshold];
+    }
+
+    public static boolean isEnabled(Level level) {
+        return level.ordinal() >= threshold && level != Level.OFF;
+    }
+
+    public static void flush() {
+        logger.flush();
+    }
+
+    // --- End of Configuration Section ---
+
+    // ========================================================================
+    // Section: Logging Functions
+    // ========================================================================
+
+    public static void debug(String message) {
+        log(Level.DEBUG, message, null);
+    }
+
+    public static void info(String message) {
+        log(Level.INFO, message, null);
+    }
+
+    public static void warn(String message) {
+        log(Level.WARN, message, null);
+    }
+
+    public static void error(String message) {
+        log(Level.ERROR, message, null);
+    }
+
+    public static void error(String message, Throwable error) {
+        log(Level.ERROR, message, error);
+    }
+
+    public static void log(Level level, String message, Throwable error) {
+        if (isEnabled(level)) {
+            logger.log(level, message, error);
+        }
+    }
+
+    // --- End of Logging Functions Section ---
+}
@@ -0,0 +1,31 @@
+package modbus;
+
+/**
+ * ============================================================================
+ * Modbus Logger - Diagnostics SPI
+ * ============================================================================
+ * Every diagnostic message from the library goes through ModbusLog to the
+ * ModbusLogger installed with ModbusLog.setLogger(); ModbusAsyncLogger is
+ * used unless another implementation (or NONE) is installed.
+ *
+ * ModbusLog checks the level before a message is built, so log() only sees
+ * enabled levels. It is called on I/O and event loop threads, so
+ * implementations must be thread-safe and should not block: hand the message
+ * off and return.
+ */
+public interface ModbusLogger {
+
+    enum Level {
+        DEBUG, INFO, WARN, ERROR, OFF
+    }
+
+    // error may be null.
+    void log(Level level, String message, Throwable error);
+
+    // Waits until everything logged so far has been written. Optional.
+    default void flush() {
+    }
+
+    ModbusLogger NONE = (level, message, error) -> {
+    };
+}
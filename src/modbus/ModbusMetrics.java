@@ -0,0 +1,53 @@
+package modbus;
+
+/**
+ * ============================================================================
+ * Modbus Metrics - Instrumentation SPI
+ * ============================================================================
+ * ModbusTCP reports every transaction, failure and reconnect to the
+ * ModbusMetrics set with setMetrics(); ModbusJmxMetrics.getDefault() is used
+ * unless another implementation (or NONE) is installed.
+ *
+ * forEndpoint() is called once per connect, off the hot path, and may
+ * allocate. Recorder methods run on the caller's thread for every request,
+ * so implementations must be thread-safe, non-blocking and allocation-free.
+ */
+public interface ModbusMetrics {
+
+    Recorder forEndpoint(String host, int port);
+
+    interface Recorder {
+        // Raises the endpoint's in-flight gauge; exactly one completed/failed call follows.
+        void transactionStarted();
+
+        // exceptionCode is the Modbus exception code of the reply, or 0 for a normal reply.
+        void transactionCompleted(int unitId, int functionCode, long latencyNanos, int requestBytes,
+                int responseBytes, int exceptionCode);
+
+        // No reply: I/O failure, or timeout if timedOut is set.
+        void transactionFailed(int unitId, int functionCode, long latencyNanos, boolean timedOut);
+
+        void reconnected();
+    }
+
+    Recorder NO_OP_RECORDER = new Recorder() {
+        @Override
+        public void transactionStarted() {
+        }
+
+        @Override
+        public void transactionCompleted(int unitId, int functionCode, long latencyNanos, int requestBytes,
+                int responseBytes, int exceptionCode) {
+        }
+
+        @Override
+        public void transactionFailed(int unitId, int functionCode, long latencyNanos, boolean timedOut) {
+        }
+
+        @Override
+        public void reconnected() {
+        }
+    };
+
+    ModbusMetrics NONE = (host, port) -> NO_OP_RECORDER;
+}
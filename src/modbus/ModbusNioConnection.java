@@ -0,0 +1,285 @@
+package modbus;
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * ============================================================================
+ * Modbus TCP NIO Connection - One Non-Blocking Socket Owned by an Event Loop
+ * ============================================================================
+ * Created through ModbusNioEngine.connect(). The high-level methods mirror
+ * ModbusTCP but return a CompletableFuture instead of blocking. Any number of
+ * requests may be outstanding; responses are matched by Transaction ID.
+ */
+public class ModbusNioConnection implements Closeable {
+
+    // Largest legal MBAP length field: unit ID + 253-byte PDU.
+    private static final int MAX_MBAP_LENGTH = 254;
+
+    interface ResponseParser<T> {
+        T parse(byte[] responseAdu) throws IOException;
+    }
+
+    private static final class PendingRequest<T> {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        final ResponseParser<T> parser;
+        final long deadlineNanos;
+
+        PendingRequest(ResponseParser<T> parser, long deadlineNanos) {
+            this.parser = parser;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        void complete(byte[] responseAdu) {
+            try {
+                future.complete(parser.parse(responseAdu));
+            } catch (IOException | RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private final ModbusNioEngine.EventLoop loop;
+    private final SocketChannel channel;
+    private final int timeoutMillis;
+    private final long connectDeadlineNanos;
+
+    // Frame builders, parsers and the Transaction ID counter come from here.
+    private final ModbusTCP codec = new ModbusTCP();
+
+    private final ConcurrentLinkedQueue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<>();
+    private final ConcurrentHashMap<Integer, PendingRequest<?>> pending = new ConcurrentHashMap<>();
+    private final CompletableFuture<ModbusNioConnection> connectFuture = new CompletableFuture<>();
+    private volatile boolean closed = false;
+
+    // --- Event loop thread only ---
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(4096);
+    private final Runnable flushTask = this::onFlushRequested;
+    private SelectionKey key;
+
+    ModbusNioConnection(ModbusNioEngine.EventLoop loop, SocketChannel channel, int timeoutMillis) {
+        this.loop = loop;
+        this.channel = channel;
+        this.timeoutMillis = timeoutMillis;
+        this.connectDeadlineNanos = timeoutMillis == 0 ? Long.MAX_VALUE
+                : System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    CompletableFuture<ModbusNioConnection> connectFuture() {
+        return connectFuture;
+    }
+
+    public boolean isOpen() {
+        return !closed && channel.isOpen();
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    // ========================================================================
+    // Section: High-Level Modbus Functions
+    // Purpose: Non-blocking counterparts of the ModbusTCP high-level methods.
+    // ========================================================================
+
+    public CompletableFuture<boolean[]> readCoils(int unitId, String plcStartAddress, int quantity) {
+        int startAddress = ModbusTCP.plcAddressToModbus(plcStartAddress);
+        byte[] requestAdu = codec.buildReadCoilsRequest(unitId, startAddress, quantity);
+        return submit(requestAdu, responseAdu -> codec.parseReadCoilsResponse(responseAdu, quantity));
+    }
+
+    public CompletableFuture<int[]> readHoldingRegisters(int unitId, String plcStartAddress, int quantity) {
+        int startAddress = ModbusTCP.plcAddressToModbus(plcStartAddress);
+        byte[] requestAdu = codec.buildReadRegistersRequest(unitId, startAddress, quantity);
+        return submit(requestAdu, responseAdu -> codec.parseReadRegistersResponse(responseAdu, quantity));
+    }
+
+    public CompletableFuture<Void> writeSingleCoil(int unitId, String plcAddress, boolean value) {
+        int address = ModbusTCP.plcAddressToModbus(plcAddress);
+        byte[] requestAdu = codec.buildWriteSingleCoilRequest(unitId, address, value);
+        return submit(requestAdu, responseAdu -> {
+            codec.validateWriteResponse(responseAdu, 0x05);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> writeSingleRegister(int unitId, String plcAddress, int value) {
+        int address = ModbusTCP.plcAddressToModbus(plcAddress);
+        byte[] requestAdu = codec.buildWriteSingleRegisterRequest(unitId, address, value);
+        return submit(requestAdu, responseAdu -> {
+            codec.validateWriteResponse(responseAdu, 0x06);
+            return null;
+        });
+    }
+
+    // --- End of High-Level Modbus Functions Section ---
+
+    // ========================================================================
+    // Section: Request Submission
+    // Purpose: Callable from any thread; hands the ADU to the event loop.
+    // ========================================================================
+
+    <T> CompletableFuture<T> submit(byte[] requestAdu, ResponseParser<T> parser) {
+        if (closed) {
+            return CompletableFuture.failedFuture(new IOException("Not connected."));
+        }
+        long deadline = timeoutMillis == 0 ? Long.MAX_VALUE
+                : System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        PendingRequest<T> request = new PendingRequest<>(parser, deadline);
+
+        int transactionId = ((requestAdu[0] & 0xFF) << 8) | (requestAdu[1] & 0xFF);
+        if (pending.putIfAbsent(transactionId, request) != null) {
+            return CompletableFuture.failedFuture(
+                    new IOException("Transaction ID " + transactionId + " is already in flight."));
+        }
+        writeQueue.add(ByteBuffer.wrap(requestAdu));
+        loop.execute(flushTask);
+
+        if (closed) {
+            // Lost a race with fail(); make sure this request does not hang.
+            pending.remove(transactionId, request);
+            request.future.completeExceptionally(new IOException("Not connected."));
+        }
+        return request.future;
+    }
+
+    @Override
+    public void close() {
+        loop.execute(() -> fail(new IOException("Connection closed.")));
+    }
+
+    // --- End of Request Submission Section ---
+
+    // ========================================================================
+    // Section: Event Loop Callbacks
+    // Purpose: Connect, read, write and timeout handling on the loop thread.
+    // ========================================================================
+
+    void register(InetSocketAddress endpoint) {
+        try {
+            loop.track(this);
+            key = channel.register(loop.selector(), SelectionKey.OP_CONNECT, this);
+            if (channel.connect(endpoint)) {
+                onConnectable();
+            }
+        } catch (IOException e) {
+            fail(new IOException("ERROR: Connection failed: " + e.getMessage(), e));
+        } catch (RuntimeException e) {
+            // e.g. UnresolvedAddressException for a bad host name; fails this connection only.
+            fail(new IOException("ERROR: Connection failed: " + e, e));
+        }
+    }
+
+    void onConnectable() throws IOException {
+        if (channel.isConnectionPending() && !channel.finishConnect()) {
+            return;
+        }
+        key.interestOps(writeQueue.isEmpty() ? SelectionKey.OP_READ
+                : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        connectFuture.complete(this);
+    }
+
+    private void onFlushRequested() {
+        if (closed || key == null || !key.isValid() || !channel.isConnected()) {
+            return;
+        }
+        try {
+            onWritable();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    void onWritable() throws IOException {
+        ByteBuffer head;
+        while ((head = writeQueue.peek()) != null) {
+            channel.write(head);
+            if (head.hasRemaining()) {
+                // Socket buffer full; resume when the selector says writable.
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+            writeQueue.poll();
+        }
+        key.interestOps(SelectionKey.OP_READ);
+    }
+
+    void onReadable() throws IOException {
+        int read = channel.read(readBuffer);
+        if (read < 0) {
+            throw new EOFException("Connection closed by server.");
+        }
+        readBuffer.flip();
+        while (readBuffer.remaining() >= 7) {
+            int position = readBuffer.position();
+            int responseLength = ((readBuffer.get(position + 4) & 0xFF) << 8)
+                    | (readBuffer.get(position + 5) & 0xFF);
+            if (responseLength < 1 || responseLength > MAX_MBAP_LENGTH) {
+                throw new IOException("Invalid response length in MBAP header: " + responseLength);
+            }
+            int frameLength = 6 + responseLength;
+            if (readBuffer.remaining() < frameLength) {
+                break;
+            }
+            byte[] responseAdu = new byte[frameLength];
+            readBuffer.get(responseAdu);
+
+            int transactionId = ((responseAdu[0] & 0xFF) << 8) | (responseAdu[1] & 0xFF);
+            PendingRequest<?> request = pending.remove(transactionId);
+            if (request != null) {
+                request.complete(responseAdu);
+            }
+        }
+        readBuffer.compact();
+    }
+
+    void expireTimedOut(long nowNanos) {
+        if (!connectFuture.isDone() && isExpired(nowNanos, connectDeadlineNanos)) {
+            fail(new IOException("ERROR: Connection timed out after " + timeoutMillis + "ms"));
+            return;
+        }
+        Iterator<Map.Entry<Integer, PendingRequest<?>>> it = pending.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Integer, PendingRequest<?>> entry = it.next();
+            if (isExpired(nowNanos, entry.getValue().deadlineNanos)) {
+                it.remove();
+                entry.getValue().future.completeExceptionally(new IOException("Modbus read timed out",
+                        new SocketTimeoutException("No response for transaction " + entry.getKey() + " after "
+                                + timeoutMillis + " ms")));
+            }
+        }
+    }
+
+    private static boolean isExpired(long nowNanos, long deadlineNanos) {
+        return deadlineNanos != Long.MAX_VALUE && nowNanos - deadlineNanos > 0;
+    }
+
+    void fail(IOException cause) {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        loop.untrack(this);
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            ModbusLog.error("Error closing channel: " + e.getMessage());
+        }
+        connectFuture.completeExceptionally(cause);
+        for (PendingRequest<?> request : pending.values()) {
+            request.future.completeExceptionally(cause);
+        }
+        pending.clear();
+        writeQueue.clear();
+    }
+
+    // --- End of Event Loop Callbacks Section ---
+}
@@ -0,0 +1,185 @@
+package modbus;
+
+import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ============================================================================
+ * Modbus TCP NIO Engine - Non-Blocking Client for Many Connections
+ * ============================================================================
+ * Drives any number of ModbusNioConnection instances from a small, fixed set
+ * of selector threads. Callers never block on the network: every request
+ * returns a CompletableFuture that the event loop completes when the matching
+ * response arrives, when its timeout expires or when the connection fails.
+ * Frames are built and parsed by the same code ModbusTCP uses.
+ */
+public class ModbusNioEngine implements Closeable {
+
+    // How often each loop wakes up to expire timed-out requests.
+    static final long SWEEP_INTERVAL_MILLIS = 10;
+
+    private final EventLoop[] loops;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+
+    public ModbusNioEngine(int eventLoopThreads) throws IOException {
+        if (eventLoopThreads < 1) {
+            throw new IllegalArgumentException("Event loop thread count must be at least 1, but was "
+                    + eventLoopThreads);
+        }
+        loops = new EventLoop[eventLoopThreads];
+        for (int i = 0; i < eventLoopThreads; i++) {
+            loops[i] = new EventLoop("modbus-nio-loop-" + i);
+        }
+    }
+
+    /*
+     * Note:
+     * Connections are spread round-robin over the loops. The returned future
+     * completes once the TCP handshake finishes or fails; requests issued on
+     * the connection before that are queued and sent right after.
+     */
+    public CompletableFuture<ModbusNioConnection> connect(String serverAddress, int serverPort, int timeoutMillis)
+            throws IOException {
+        if (timeoutMillis < 0) {
+            throw new IllegalArgumentException("Timeout cannot be negative");
+        }
+        EventLoop loop = loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        ModbusNioConnection connection = new ModbusNioConnection(loop, channel, timeoutMillis);
+        InetSocketAddress endpoint = new InetSocketAddress(serverAddress, serverPort);
+        loop.execute(() -> connection.register(endpoint));
+        return connection.connectFuture();
+    }
+
+    @Override
+    public void close() {
+        for (EventLoop loop : loops) {
+            loop.shutdown();
+        }
+    }
+
+    // ========================================================================
+    // Section: Event Loop
+    // Purpose: One selector thread; owns the channels registered with it.
+    // All ModbusNioConnection state touched here is confined to this thread.
+    // ========================================================================
+
+    static final class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Thread thread;
+        private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean wakeupPending = new AtomicBoolean();
+        private final Set<ModbusNioConnection> connections = new HashSet<>();
+        private volatile boolean running = true;
+
+        EventLoop(String name) throws IOException {
+            selector = Selector.open();
+            thread = new Thread(this, name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        Selector selector() {
+            return selector;
+        }
+
+        boolean inLoop() {
+            return Thread.currentThread() == thread;
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            // Coalesce wakeups: one selector syscall per batch of submissions.
+            if (!inLoop() && wakeupPending.compareAndSet(false, true)) {
+                selector.wakeup();
+            }
+        }
+
+        void track(ModbusNioConnection connection) {
+            connections.add(connection);
+        }
+
+        void untrack(ModbusNioConnection connection) {
+            connections.remove(connection);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select(SWEEP_INTERVAL_MILLIS);
+                    wakeupPending.set(false);
+
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        try {
+                            task.run();
+                        } catch (RuntimeException e) {
+                            // One bad task must not take down every connection on this selector.
+                            ModbusLog.error("Modbus NIO loop task failed: " + e, e);
+                        }
+                    }
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        ModbusNioConnection connection = (ModbusNioConnection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isConnectable()) {
+                                connection.onConnectable();
+                            }
+                            if (key.isValid() && key.isReadable()) {
+                                connection.onReadable();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.onWritable();
+                            }
+                        } catch (IOException e) {
+                            connection.fail(e);
+                        } catch (CancelledKeyException e) {
+                            connection.fail(new IOException("Connection closed.", e));
+                        } catch (RuntimeException e) {
+                            connection.fail(new IOException("Connection failed: " + e, e));
+                        }
+                    }
+
+                    long now = System.nanoTime();
+                    for (ModbusNioConnection connection : connections.toArray(new ModbusNioConnection[0])) {
+                        connection.expireTimedOut(now);
+                    }
+                }
+            } catch (IOException e) {
+                ModbusLog.error("Modbus NIO event loop failed: " + e.getMessage());
+            } finally {
+                for (ModbusNioConnection connection : connections.toArray(new ModbusNioConnection[0])) {
+                    connection.fail(new IOException("Modbus NIO engine shut down."));
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    ModbusLog.error("Error closing selector: " + e.getMessage());
+                }
+            }
+        }
+
+        void shutdown() {
+            running = false;
+            selector.wakeup();
+        }
+    }
+
+    // --- End of Event Loop Section ---
+}
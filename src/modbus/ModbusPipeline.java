@@ -0,0 +1,199 @@
+package modbus;
+
+import java.io.*;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.*;
+import modbus.ModbusLogger.Level;
+
+/**
+ * ============================================================================
+ * Modbus TCP Pipeline - Multiple In-Flight Transactions on One Socket
+ * ============================================================================
+ * Keeps up to maxInFlight request ADUs outstanding on a single connection and
+ * matches each response to its caller by the MBAP Transaction ID. A dedicated
+ * reader thread drains the input stream; every caller waits on its own slot
+ * with its own timeout, so one slow or lost reply never stalls the others.
+ */
+class ModbusPipeline {
+
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final Semaphore permits;
+    private final ConcurrentHashMap<Integer, CompletableFuture<byte[]>> inFlight = new ConcurrentHashMap<>();
+    private final Runnable onFailure;
+    private final Thread reader;
+    private volatile boolean closed = false;
+
+    ModbusPipeline(DataInputStream in, DataOutputStream out, int maxInFlight, Runnable onFailure) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("Pipeline depth must be at least 1, but was " + maxInFlight);
+        }
+        this.in = in;
+        this.out = out;
+        this.permits = new Semaphore(maxInFlight);
+        this.onFailure = onFailure;
+        this.reader = new Thread(this::readLoop, "modbus-pipeline-reader");
+        this.reader.setDaemon(true);
+    }
+
+    void start() {
+        reader.start();
+    }
+
+    // ========================================================================
+    // Section: Request Side
+    // Purpose: Reserve a slot, write the ADU and wait for the matching reply.
+    // ========================================================================
+
+    /*
+     * Note:
+     * slotTimeoutMillis bounds the wait for a free slot; responseTimeoutMillis
+     * is counted from the moment the request is written, so time spent queued
+     * behind other requests never eats into the reply budget. sentNanos[0]
+     * receives System.nanoTime() when the request is written; it stays 0 if it
+     * never is. A timeout of 0 waits forever.
+     */
+    byte[] execute(byte[] requestAdu, int slotTimeoutMillis, int responseTimeoutMillis, long[] sentNanos)
+            throws IOException {
+        if (closed) {
+            throw new IOException("Not connected. Cannot execute transaction.");
+        }
+
+        try {
+            if (slotTimeoutMillis == 0) {
+                permits.acquire();
+            } else if (!permits.tryAcquire(slotTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new IOException("Modbus pipeline full: no free slot after " + slotTimeoutMillis + " ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a pipeline slot");
+        }
+
+        int transactionId = ((requestAdu[0] & 0xFF) << 8) | (requestAdu[1] & 0xFF);
+        CompletableFuture<byte[]> slot = new CompletableFuture<>();
+        if (inFlight.putIfAbsent(transactionId, slot) != null) {
+            permits.release();
+            throw new IOException("Transaction ID " + transactionId + " is already in flight.");
+        }
+
+        try {
+            sentNanos[0] = System.nanoTime();
+            send(requestAdu);
+            if (responseTimeoutMillis == 0) {
+                return slot.get();
+            }
+            long deadline = sentNanos[0] + TimeUnit.MILLISECONDS.toNanos(responseTimeoutMillis);
+            long remaining = Math.max(0, deadline - System.nanoTime());
+            return slot.get(remaining, TimeUnit.NANOSECONDS);
+
+        } catch (TimeoutException e) {
+            throw new IOException("Modbus read timed out",
+                    new SocketTimeoutException("No response for transaction " + transactionId + " after "
+                            + responseTimeoutMillis + " ms"));
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Modbus pipeline failure: " + cause, cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for transaction " + transactionId);
+        } catch (IOException e) {
+            fail(e);
+            throw e;
+        } finally {
+            inFlight.remove(transactionId, slot);
+            permits.release();
+        }
+    }
+
+    void send(byte[] requestAdu) throws IOException {
+        synchronized (out) {
+            out.write(requestAdu);
+            out.flush();
+        }
+    }
+
+    // --- End of Request Side Section ---
+
+    // ========================================================================
+    // Section: Response Side
+    // Purpose: Reader thread that frames responses and completes their slots.
+    // Responses for slots that already timed out are read and discarded.
+    // ========================================================================
+
+    private void readLoop() {
+        byte[] mbap = new byte[7];
+        try {
+            while (!closed) {
+                int first;
+                try {
+                    first = in.read();
+                } catch (SocketTimeoutException idle) {
+                    // No frame started yet; an idle socket is not an error here.
+                    continue;
+                }
+                if (first < 0) {
+                    throw new EOFException("Connection closed by server.");
+                }
+                mbap[0] = (byte) first;
+                in.readFully(mbap, 1, 6);
+
+                int responseLength = ((mbap[4] & 0xFF) << 8) | (mbap[5] & 0xFF);
+                if (responseLength < 1) {
+                    throw new IOException("Invalid response length in MBAP header: " + responseLength);
+                }
+
+                byte[] responseAdu = new byte[6 + responseLength];
+                System.arraycopy(mbap, 0, responseAdu, 0, 7);
+                in.readFully(responseAdu, 7, responseLength - 1);
+
+                onResponse(((mbap[0] & 0xFF) << 8) | (mbap[1] & 0xFF), responseAdu);
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    // Runs on the reader thread for every framed response.
+    void onResponse(int transactionId, byte[] responseAdu) {
+        CompletableFuture<byte[]> slot = inFlight.get(transactionId);
+        if (slot != null) {
+            slot.complete(responseAdu);
+        }
+    }
+
+    // --- End of Response Side Section ---
+
+    int inFlightCount() {
+        return inFlight.size();
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    void fail(IOException cause) {
+        if (closed) {
+            return;
+        }
+        if (ModbusLog.isEnabled(Level.ERROR)) {
+            ModbusLog.error("Modbus communication error: " + cause.getMessage());
+        }
+        close(cause);
+        onFailure.run();
+    }
+
+    void close() {
+        close(new IOException("Connection closed."));
+    }
+
+    void close(IOException cause) {
+        closed = true;
+        for (CompletableFuture<byte[]> slot : inFlight.values()) {
+            slot.completeExceptionally(cause);
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package modbus;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ============================================================================
+ * Modbus Poller - Scheduled Multi-Device Scanning with Per-Group Scan Rates
+ * ============================================================================
+ * Polls tag groups on many devices, each group at its own period. On every
+ * device, all groups with the same period form one scan class. A scan class
+ * is compiled once by ModbusReadPlanner into combined block reads.
+ *
+ * Scan classes start at staggered phase offsets within their period, so a
+ * few hundred devices on the same rate do not all fire at once. Each scan
+ * runs on a virtual thread. If a scan is still running when its next cycle
+ * is due, that cycle is skipped and counted rather than queued. A device
+ * that falls behind therefore catches up at its next slot instead of
+ * building a backlog.
+ */
+public class ModbusPoller {
+
+    public interface ScanListener {
+        void onScan(ModbusReadPlanner.Result result);
+
+        default void onError(IOException error) {
+        }
+    }
+
+    // Golden-ratio stride spreads successive phase offsets evenly over a period.
+    private static final double PHASE_STRIDE = 0.6180339887498949;
+
+    private final Map<String, PolledDevice> devices = new LinkedHashMap<>();
+    private final ModbusReadPlanner planner;
+    private ScheduledExecutorService ticker;
+    private ExecutorService scanners;
+    private int phaseSequence = 0;
+    private boolean started = false;
+
+    public ModbusPoller() {
+        this(new ModbusReadPlanner());
+    }
+
+    public ModbusPoller(ModbusReadPlanner planner) {
+        this.planner = planner;
+    }
+
+    // ========================================================================
+    // Section: Configuration
+    // ========================================================================
+
+    public synchronized void addDevice(String deviceName, ModbusTCP client, int unitId) {
+        checkNotStarted();
+        if (devices.containsKey(deviceName)) {
+            throw new IllegalArgumentException("Device already registered: " + deviceName);
+        }
+        devices.put(deviceName, new PolledDevice(deviceName, client, unitId));
+    }
+
+    public synchronized ScanGroup addGroup(String deviceName, String groupName, long periodMillis,
+            Collection<String> plcAddresses, ScanListener listener) {
+        checkNotStarted();
+        if (periodMillis < 1) {
+            throw new IllegalArgumentException("Scan period must be at least 1 ms, but was " + periodMillis);
+        }
+        PolledDevice device = devices.get(deviceName);
+        if (device == null) {
+            throw new IllegalArgumentException("Unknown device: " + deviceName);
+        }
+        ScanGroup group = new ScanGroup(groupName, periodMillis, plcAddresses, listener);
+        device.scanClasses.computeIfAbsent(periodMillis, period -> new ScanClass(device, period)).groups.add(group);
+        return group;
+    }
+
+    private void checkNotStarted() {
+        if (started) {
+            throw new IllegalStateException("Poller already started");
+        }
+    }
+
+    // --- End of Configuration Section ---
+
+    // ========================================================================
+    // Section: Lifecycle
+    // ========================================================================
+
+    public synchronized void start() {
+        checkNotStarted();
+        started = true;
+        ticker = Executors.newSingleThreadScheduledExecutor(ModbusConnectionPool.daemonThreads("modbus-poller-tick"));
+        scanners = Executors.newVirtualThreadPerTaskExecutor();
+        for (PolledDevice device : devices.values()) {
+            for (ScanClass scanClass : device.scanClasses.values()) {
+                scanClass.compile(planner);
+                double phase = (phaseSequence++ * PHASE_STRIDE) % 1.0;
+                long initialDelay = (long) (phase * scanClass.periodMillis);
+                ticker.scheduleAtFixedRate(scanClass::tick, initialDelay, scanClass.periodMillis,
+                        TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    public synchronized void stop() {
+        if (!started) {
+            return;
+        }
+        ticker.shutdownNow();
+        // No interrupt: an interrupted virtual thread closes the socket it is blocked on.
+        scanners.shutdown();
+        started = false;
+    }
+
+    // --- End of Lifecycle Section ---
+
+    // ========================================================================
+    // Section: Devices, Scan Classes and Groups
+    // ========================================================================
+
+    private static final class PolledDevice {
+        final String name;
+        final ModbusTCP client;
+        final int unitId;
+        final Map<Long, ScanClass> scanClasses = new TreeMap<>();
+
+        PolledDevice(String name, ModbusTCP client, int unitId) {
+            this.name = name;
+            this.client = client;
+            this.unitId = unitId;
+        }
+    }
+
+    private final class ScanClass {
+        final PolledDevice device;
+        final long periodMillis;
+        final List<ScanGroup> groups = new ArrayList<>();
+        final AtomicBoolean running = new AtomicBoolean();
+        ModbusReadPlanner.Plan plan;
+
+        ScanClass(PolledDevice device, long periodMillis) {
+            this.device = device;
+            this.periodMillis = periodMillis;
+        }
+
+        void compile(ModbusReadPlanner planner) {
+            Set<String> tags = new LinkedHashSet<>();
+            for (ScanGroup group : groups) {
+                tags.addAll(group.plcAddresses);
+            }
+            plan = planner.plan(tags);
+        }
+
+        // Runs on the ticker thread: must only hand off, never block.
+        void tick() {
+            if (!running.compareAndSet(false, true)) {
+                for (ScanGroup group : groups) {
+                    group.skippedCycles.incrementAndGet();
+                }
+                return;
+            }
+            try {
+                scanners.execute(this::scan);
+            } catch (RejectedExecutionException e) {
+                running.set(false);
+            }
+        }
+
+        private void scan() {
+            long start = System.nanoTime();
+            try {
+                ModbusReadPlanner.Result result;
+                try {
+                    result = plan.execute(device.client, device.unitId);
+                } catch (IOException e) {
+                    for (ScanGroup group : groups) {
+                        group.errors.incrementAndGet();
+                        notifyListener(group, () -> group.listener.onError(e));
+                    }
+                    return;
+                }
+                long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                for (ScanGroup group : groups) {
+                    group.recordScan(elapsedMillis);
+                    notifyListener(group, () -> group.listener.onScan(result));
+                }
+            } catch (RuntimeException e) {
+                ModbusLog.error("Scan failed on " + device.name + ": " + e.getMessage());
+            } finally {
+                running.set(false);
+            }
+        }
+
+        // A listener that throws is counted against its own group; the other groups still get the scan.
+        private void notifyListener(ScanGroup group, Runnable callback) {
+            try {
+                callback.run();
+            } catch (RuntimeException e) {
+                group.errors.incrementAndGet();
+                group.listenerErrors.incrementAndGet();
+                ModbusLog.error("Scan listener of group " + group.name + " on " + device.name + " failed: "
+                        + e.getMessage());
+            }
+        }
+    }
+
+    public static final class ScanGroup {
+        private final String name;
+        private final long periodMillis;
+        private final List<String> plcAddresses;
+        private final ScanListener listener;
+
+        private final AtomicLong scans = new AtomicLong();
+        private final AtomicLong overruns = new AtomicLong();
+        private final AtomicLong skippedCycles = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong listenerErrors = new AtomicLong();
+        private volatile long lastScanMillis = 0;
+        private volatile long maxScanMillis = 0;
+
+        private ScanGroup(String name, long periodMillis, Collection<String> plcAddresses, ScanListener listener) {
+            this.name = name;
+            this.periodMillis = periodMillis;
+            this.plcAddresses = new ArrayList<>(plcAddresses);
+            this.listener = listener;
+        }
+
+        private void recordScan(long elapsedMillis) {
+            scans.incrementAndGet();
+            lastScanMillis = elapsedMillis;
+            if (elapsedMillis > maxScanMillis) {
+                maxScanMillis = elapsedMillis;
+            }
+            if (elapsedMillis > periodMillis) {
+                overruns.incrementAndGet();
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getPeriodMillis() {
+            return periodMillis;
+        }
+
+        public long getScanCount() {
+            return scans.get();
+        }
+
+        // Scans that took longer than the period.
+        public long getOverrunCount() {
+            return overruns.get();
+        }
+
+        // Cycles dropped because the previous scan was still running.
+        public long getSkippedCycleCount() {
+            return skippedCycles.get();
+        }
+
+        public long getErrorCount() {
+            return errors.get();
+        }
+
+        // Scans whose listener threw, a subset of getErrorCount(); the read itself succeeded.
+        public long getListenerErrorCount() {
+            return listenerErrors.get();
+        }
+
+        public long getLastScanMillis() {
+            return lastScanMillis;
+        }
+
+        public long getMaxScanMillis() {
+            return maxScanMillis;
+        }
+    }
+
+    // --- End of Devices, Scan Classes and Groups Section ---
+}
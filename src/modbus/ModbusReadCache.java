@@ -0,0 +1,372 @@
+package modbus;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ============================================================================
+ * Modbus Read Cache - Read-Through Cache with TTL and Request Coalescing
+ * ============================================================================
+ * Sits in front of ModbusTCP.readHoldingRegisters() and readCoils() once
+ * installed with setReadCache(). Values are kept per Modbus address in pages
+ * of PAGE_SIZE addresses, and each value expires after the TTL of its PLC
+ * area ("D", "M", "T", "C").
+ *
+ * A read is served from fresh values where possible. Only the stale span
+ * goes to the wire. If another thread is already loading part of that span,
+ * the read waits for that load and shares its result instead of sending its
+ * own request, so concurrent identical or overlapping reads cost one round
+ * trip. Every write through the client invalidates the addresses it touches.
+ * The number of cached addresses is bounded; the least recently used pages
+ * are evicted first.
+ *
+ * One cache may be shared by several clients, but only if they all talk to
+ * the same PLC: entries are keyed by unit ID and address, not by endpoint.
+ */
+public class ModbusReadCache {
+
+    interface Loader {
+        int[] load(int startAddress, int quantity) throws IOException;
+    }
+
+    private static final int PAGE_SHIFT = 8;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+
+    private final int maxPages;
+    private final long defaultTtlNanos;
+    // Indexed by upper-case area letter; -1 means "use the default TTL".
+    private final long[] areaTtlNanos = new long[128];
+    private final LinkedHashMap<Long, Page> pages;
+    private final List<Load> inFlight = new ArrayList<>();
+
+    // --- Cache State (guarded by this) ---
+    // Bumped by every invalidation; a load that raced a write is not cached.
+    private long writeEpoch = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long coalesced = 0;
+
+    public ModbusReadCache(int maxCachedAddresses, long defaultTtlMillis) {
+        if (maxCachedAddresses < 1) {
+            throw new IllegalArgumentException("Cache size must be at least 1 address, but was "
+                    + maxCachedAddresses);
+        }
+        if (defaultTtlMillis < 0) {
+            throw new IllegalArgumentException("TTL cannot be negative");
+        }
+        this.maxPages = (maxCachedAddresses + PAGE_SIZE - 1) >>> PAGE_SHIFT;
+        this.defaultTtlNanos = TimeUnit.MILLISECONDS.toNanos(defaultTtlMillis);
+        Arrays.fill(areaTtlNanos, -1);
+        this.pages = new LinkedHashMap<Long, Page>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Page> eldest) {
+                return size() > maxPages;
+            }
+        };
+    }
+
+    /*
+     * Note:
+     * A TTL of 0 disables caching for the area but keeps request coalescing,
+     * which is the safe choice for values the PLC changes every scan.
+     */
+    public synchronized void setTtl(String area, long ttlMillis) {
+        if (area == null || area.length() != 1 || Character.toUpperCase(area.charAt(0)) >= areaTtlNanos.length) {
+            throw new IllegalArgumentException("PLC area must be a single letter such as \"D\" or \"M\"");
+        }
+        if (ttlMillis < 0) {
+            throw new IllegalArgumentException("TTL cannot be negative");
+        }
+        areaTtlNanos[Character.toUpperCase(area.charAt(0))] = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    }
+
+    public synchronized void invalidateAll() {
+        writeEpoch++;
+        pages.clear();
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    // Reads that needed at least one request on the wire.
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    // Reads that shared a request already in flight for another caller.
+    public synchronized long getCoalescedCount() {
+        return coalesced;
+    }
+
+    // ========================================================================
+    // Section: Read Through
+    // ========================================================================
+
+    int[] readRegisters(int unitId, char area, int startAddress, int quantity, Loader loader) throws IOException {
+        return read(unitId, false, ttlFor(area), startAddress, quantity, loader);
+    }
+
+    boolean[] readCoils(int unitId, char area, int startAddress, int quantity, Loader loader) throws IOException {
+        int[] values = read(unitId, true, ttlFor(area), startAddress, quantity, loader);
+        boolean[] coils = new boolean[quantity];
+        for (int i = 0; i < quantity; i++) {
+            coils[i] = values[i] != 0;
+        }
+        return coils;
+    }
+
+    private synchronized long ttlFor(char area) {
+        long ttl = area < areaTtlNanos.length ? areaTtlNanos[area] : -1;
+        return ttl >= 0 ? ttl : defaultTtlNanos;
+    }
+
+    /*
+     * Note:
+     * Each pass fills what the cache can answer, then either issues one load
+     * for the remaining stale span (trimmed by loads already in flight) or
+     * waits for the in-flight loads that cover it. A waited-on load that
+     * failed simply leaves its addresses missing, so the next pass loads
+     * them itself.
+     */
+    private int[] read(int unitId, boolean coils, long ttlNanos, int startAddress, int quantity, Loader loader)
+            throws IOException {
+        int[] result = new int[quantity];
+        boolean[] have = new boolean[quantity];
+        int end = startAddress + quantity;
+        boolean firstPass = true;
+
+        while (true) {
+            Load own = null;
+            List<Load> joined = new ArrayList<>();
+            long epoch;
+            synchronized (this) {
+                fillFromPages(unitId, coils, startAddress, result, have);
+                int missingStart = firstMissing(have, startAddress);
+                if (missingStart < 0) {
+                    if (firstPass) {
+                        hits++;
+                    }
+                    return result;
+                }
+                int missingEnd = lastMissing(have, startAddress) + 1;
+                for (Load load : inFlight) {
+                    if (load.overlaps(unitId, coils, missingStart, missingEnd)) {
+                        joined.add(load);
+                    }
+                }
+                int loadStart = trimStart(unitId, coils, missingStart, missingEnd);
+                int loadEnd = trimEnd(unitId, coils, loadStart, missingEnd);
+                if (loadStart < loadEnd) {
+                    own = new Load(unitId, coils, loadStart, loadEnd);
+                    inFlight.add(own);
+                    misses++;
+                } else if (firstPass) {
+                    coalesced++;
+                }
+                epoch = writeEpoch;
+            }
+            firstPass = false;
+
+            if (own != null) {
+                try {
+                    own.values = loader.load(own.start, own.end - own.start);
+                    synchronized (this) {
+                        if (epoch == writeEpoch && ttlNanos > 0) {
+                            store(unitId, coils, own.start, own.values, System.nanoTime() + ttlNanos);
+                        }
+                    }
+                    own.copyTo(startAddress, end, result, have);
+                } finally {
+                    synchronized (this) {
+                        inFlight.remove(own);
+                    }
+                    own.done.complete(null);
+                }
+            }
+            for (Load load : joined) {
+                if (load.await()) {
+                    load.copyTo(startAddress, end, result, have);
+                }
+            }
+        }
+    }
+
+    // --- End of Read Through Section ---
+
+    // ========================================================================
+    // Section: Invalidation
+    // ========================================================================
+
+    void invalidate(int unitId, boolean coils, int startAddress, int quantity) {
+        synchronized (this) {
+            writeEpoch++;
+            int end = startAddress + quantity;
+            for (int address = startAddress; address < end; address++) {
+                Page page = pages.get(pageKey(unitId, coils, address));
+                if (page == null) {
+                    // Skip to the next page boundary.
+                    address |= PAGE_SIZE - 1;
+                    continue;
+                }
+                page.valid[address & (PAGE_SIZE - 1)] = false;
+            }
+        }
+    }
+
+    // --- End of Invalidation Section ---
+
+    // ========================================================================
+    // Section: Pages and Loads
+    // ========================================================================
+
+    private static final class Page {
+        final int[] values = new int[PAGE_SIZE];
+        final long[] expiresAt = new long[PAGE_SIZE];
+        final boolean[] valid = new boolean[PAGE_SIZE];
+    }
+
+    private static final class Load {
+        final int unitId;
+        final boolean coils;
+        final int start;
+        final int end;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        // Written before done completes; read only after done.
+        int[] values;
+
+        Load(int unitId, boolean coils, int start, int end) {
+            this.unitId = unitId;
+            this.coils = coils;
+            this.start = start;
+            this.end = end;
+        }
+
+        boolean overlaps(int unitId, boolean coils, int from, int to) {
+            return this.unitId == unitId && this.coils == coils && start < to && from < end;
+        }
+
+        boolean covers(int unitId, boolean coils, int address) {
+            return this.unitId == unitId && this.coils == coils && start <= address && address < end;
+        }
+
+        // Returns false if the load failed; its addresses stay missing.
+        boolean await() throws IOException {
+            try {
+                done.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a shared read");
+            } catch (ExecutionException e) {
+                return false;
+            }
+            return values != null;
+        }
+
+        void copyTo(int readStart, int readEnd, int[] result, boolean[] have) {
+            int from = Math.max(start, readStart);
+            int to = Math.min(end, readEnd);
+            for (int address = from; address < to; address++) {
+                result[address - readStart] = values[address - start];
+                have[address - readStart] = true;
+            }
+        }
+    }
+
+    private void fillFromPages(int unitId, boolean coils, int startAddress, int[] result, boolean[] have) {
+        long now = System.nanoTime();
+        Page page = null;
+        int pageIndex = -1;
+        for (int i = 0; i < result.length; i++) {
+            if (have[i]) {
+                continue;
+            }
+            int address = startAddress + i;
+            if ((address >>> PAGE_SHIFT) != pageIndex) {
+                pageIndex = address >>> PAGE_SHIFT;
+                page = pages.get(pageKey(unitId, coils, address));
+            }
+            if (page == null) {
+                continue;
+            }
+            int slot = address & (PAGE_SIZE - 1);
+            if (page.valid[slot] && page.expiresAt[slot] - now > 0) {
+                result[i] = page.values[slot];
+                have[i] = true;
+            }
+        }
+    }
+
+    private void store(int unitId, boolean coils, int startAddress, int[] values, long expiresAt) {
+        Page page = null;
+        int pageIndex = -1;
+        for (int i = 0; i < values.length; i++) {
+            int address = startAddress + i;
+            if ((address >>> PAGE_SHIFT) != pageIndex) {
+                pageIndex = address >>> PAGE_SHIFT;
+                page = pages.computeIfAbsent(pageKey(unitId, coils, address), key -> new Page());
+            }
+            int slot = address & (PAGE_SIZE - 1);
+            page.values[slot] = values[i];
+            page.expiresAt[slot] = expiresAt;
+            page.valid[slot] = true;
+        }
+    }
+
+    // Moves start past any in-flight load that already covers it.
+    private int trimStart(int unitId, boolean coils, int start, int end) {
+        boolean moved = true;
+        while (moved && start < end) {
+            moved = false;
+            for (Load load : inFlight) {
+                if (load.covers(unitId, coils, start)) {
+                    start = load.end;
+                    moved = true;
+                }
+            }
+        }
+        return start;
+    }
+
+    private int trimEnd(int unitId, boolean coils, int start, int end) {
+        boolean moved = true;
+        while (moved && start < end) {
+            moved = false;
+            for (Load load : inFlight) {
+                if (load.covers(unitId, coils, end - 1)) {
+                    end = load.start;
+                    moved = true;
+                }
+            }
+        }
+        return end;
+    }
+
+    private static int firstMissing(boolean[] have, int startAddress) {
+        for (int i = 0; i < have.length; i++) {
+            if (!have[i]) {
+                return startAddress + i;
+            }
+        }
+        return -1;
+    }
+
+    private static int lastMissing(boolean[] have, int startAddress) {
+        for (int i = have.length - 1; i >= 0; i--) {
+            if (!have[i]) {
+                return startAddress + i;
+            }
+        }
+        return -1;
+    }
+
+    private static long pageKey(int unitId, boolean coils, int address) {
+        return ((long) unitId << 40) | ((coils ? 1L : 0L) << 32) | (address >>> PAGE_SHIFT);
+    }
+
+    // --- End of Pages and Loads Section ---
+}
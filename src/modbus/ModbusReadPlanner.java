@@ -0,0 +1,213 @@
+package modbus;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * ============================================================================
+ * Modbus Read Planner - Coalesces Scattered Tags into Few Block Reads
+ * ============================================================================
+ * Resolves a list of PLC addresses (e.g. "D100", "D105", "M20") through
+ * ModbusTCP.plcAddressToModbus and merges neighbours into as few FC01/FC03
+ * requests as the protocol limits allow. A gap tolerance decides how many
+ * unused addresses may be read to join two tags into one request. After
+ * execution the block results are split back out per tag.
+ *
+ * M addresses are read as coils; D, T and C addresses as holding registers.
+ */
+public class ModbusReadPlanner {
+
+    private int registerGapTolerance = 8;
+    private int coilGapTolerance = 64;
+    private ModbusAddressMap addressMap;
+
+    public void setRegisterGapTolerance(int registers) {
+        if (registers < 0) {
+            throw new IllegalArgumentException("Gap tolerance cannot be negative");
+        }
+        this.registerGapTolerance = registers;
+    }
+
+    public void setCoilGapTolerance(int coils) {
+        if (coils < 0) {
+            throw new IllegalArgumentException("Gap tolerance cannot be negative");
+        }
+        this.coilGapTolerance = coils;
+    }
+
+    /*
+     * Note:
+     * With a map (see ModbusAddressScanner), two tags are only merged when
+     * every address read between them is readable, so a gap never makes a
+     * whole block fail with Illegal Data Address. null removes it.
+     */
+    public void setAddressMap(ModbusAddressMap addressMap) {
+        this.addressMap = addressMap;
+    }
+
+    // ========================================================================
+    // Section: Planning
+    // Purpose: Resolve, sort and greedily merge addresses into read blocks.
+    // ========================================================================
+
+    public Plan plan(Collection<String> plcAddresses) {
+        String[] tags = new LinkedHashSet<>(plcAddresses).toArray(new String[0]);
+        int[] addresses = new int[tags.length];
+        boolean[] coil = new boolean[tags.length];
+        for (int i = 0; i < tags.length; i++) {
+            addresses[i] = ModbusTCP.plcAddressToModbus(tags[i]);
+            coil[i] = isCoilArea(tags[i]);
+        }
+
+        Plan plan = new Plan(tags, coil);
+        mergeBlocks(plan, addresses, true, coilGapTolerance, ModbusTCP.MAX_READ_COILS);
+        mergeBlocks(plan, addresses, false, registerGapTolerance, ModbusTCP.MAX_READ_REGISTERS);
+        return plan;
+    }
+
+    private void mergeBlocks(Plan plan, int[] addresses, boolean coils, int gapTolerance, int maxQuantity) {
+        ModbusAddressMap map = addressMap;
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < addresses.length; i++) {
+            if (plan.coil[i] == coils) {
+                order.add(i);
+            }
+        }
+        order.sort(Comparator.comparingInt(i -> addresses[i]));
+
+        int blockStart = -1;
+        int blockEnd = -1;
+        List<Integer> members = new ArrayList<>();
+        for (int i : order) {
+            int address = addresses[i];
+            boolean fits = blockStart >= 0
+                    && address - blockEnd - 1 <= gapTolerance
+                    && address - blockStart + 1 <= maxQuantity
+                    && (map == null || address <= blockEnd + 1
+                            || map.isReadable(coils, blockStart, address - blockStart + 1));
+            if (!fits && blockStart >= 0) {
+                plan.addBlock(coils, blockStart, blockEnd - blockStart + 1, members, addresses);
+                members.clear();
+                blockStart = -1;
+            }
+            if (blockStart < 0) {
+                blockStart = address;
+            }
+            blockEnd = Math.max(blockEnd, address);
+            members.add(i);
+        }
+        if (blockStart >= 0) {
+            plan.addBlock(coils, blockStart, blockEnd - blockStart + 1, members, addresses);
+        }
+    }
+
+    static boolean isCoilArea(String plcAddress) {
+        return Character.toUpperCase(plcAddress.charAt(0)) == 'M';
+    }
+
+    // --- End of Planning Section ---
+
+    // ========================================================================
+    // Section: Plan and Result
+    // Purpose: An immutable, reusable read schedule and its per-tag values.
+    // ========================================================================
+
+    public static class Plan {
+        private final String[] tags;
+        private final boolean[] coil;
+        private final int[] tagBlock;
+        private final int[] tagOffset;
+        private final Map<String, Integer> tagIndex = new HashMap<>();
+
+        private final List<Boolean> blockIsCoil = new ArrayList<>();
+        private final List<Integer> blockStart = new ArrayList<>();
+        private final List<Integer> blockQuantity = new ArrayList<>();
+
+        private Plan(String[] tags, boolean[] coil) {
+            this.tags = tags;
+            this.coil = coil;
+            this.tagBlock = new int[tags.length];
+            this.tagOffset = new int[tags.length];
+            for (int i = 0; i < tags.length; i++) {
+                tagIndex.put(tags[i], i);
+            }
+        }
+
+        private void addBlock(boolean isCoil, int start, int quantity, List<Integer> members, int[] addresses) {
+            int block = blockStart.size();
+            blockIsCoil.add(isCoil);
+            blockStart.add(start);
+            blockQuantity.add(quantity);
+            for (int i : members) {
+                tagBlock[i] = block;
+                tagOffset[i] = addresses[i] - start;
+            }
+        }
+
+        public int getRequestCount() {
+            return blockStart.size();
+        }
+
+        public int getTagCount() {
+            return tags.length;
+        }
+
+        public Result execute(ModbusTCP client, int unitId) throws IOException, ModbusException {
+            int blocks = blockStart.size();
+            Object[] blockValues = new Object[blocks];
+            for (int b = 0; b < blocks; b++) {
+                if (blockIsCoil.get(b)) {
+                    blockValues[b] = client.readCoilsInternal(unitId, blockStart.get(b), blockQuantity.get(b));
+                } else {
+                    blockValues[b] = client.readHoldingRegistersInternal(unitId, blockStart.get(b),
+                            blockQuantity.get(b));
+                }
+            }
+
+            int[] registers = new int[tags.length];
+            boolean[] coils = new boolean[tags.length];
+            for (int i = 0; i < tags.length; i++) {
+                Object values = blockValues[tagBlock[i]];
+                if (coil[i]) {
+                    coils[i] = ((boolean[]) values)[tagOffset[i]];
+                } else {
+                    registers[i] = ((int[]) values)[tagOffset[i]];
+                }
+            }
+            return new Result(this, registers, coils);
+        }
+
+        private int indexOf(String tag, boolean expectCoil) {
+            Integer index = tagIndex.get(tag);
+            if (index == null) {
+                throw new IllegalArgumentException("Tag not part of this plan: " + tag);
+            }
+            if (coil[index] != expectCoil) {
+                throw new IllegalArgumentException(tag + " is not a " + (expectCoil ? "coil" : "register") + " tag");
+            }
+            return index;
+        }
+    }
+
+    public static class Result {
+        private final Plan plan;
+        private final int[] registers;
+        private final boolean[] coils;
+
+        private Result(Plan plan, int[] registers, boolean[] coils) {
+            this.plan = plan;
+            this.registers = registers;
+            this.coils = coils;
+        }
+
+        public int getRegister(String plcAddress) {
+            return registers[plan.indexOf(plcAddress, false)];
+        }
+
+        public boolean getCoil(String plcAddress) {
+            return coils[plan.indexOf(plcAddress, true)];
+        }
+    }
+
+    // --- End of Plan and Result Section ---
+}
@@ -0,0 +1,297 @@
+package modbus;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * ============================================================================
+ * Modbus Replay - Feeds a ModbusCapture Session Back Through the Stack
+ * ============================================================================
+ * Two targets:
+ *
+ *   parse       every recorded response goes through the ModbusTCP parser
+ *               for its function code, matched to its request by stream and
+ *               Transaction ID. Use --repeat to benchmark parsers on real
+ *               traffic.
+ *   simulator / host:port
+ *               every recorded request is sent again, one at a time on one
+ *               connection, to a local ModbusServerSimulator or to a server.
+ *               Writes are only sent to a real server with --include-writes.
+ *
+ * By default frames are replayed as fast as possible; --realtime keeps the
+ * recorded spacing between frames.
+ *
+ * Usage: java modbus.ModbusReplay captureDir parse [--realtime] [--repeat N]
+ *        java modbus.ModbusReplay captureDir simulator [--realtime]
+ *        java modbus.ModbusReplay captureDir host:port [--realtime] [--include-writes]
+ */
+public class ModbusReplay {
+
+    private final Path captureDirectory;
+    private final boolean realtime;
+
+    // --- Results of the last run ---
+    private long frames;
+    private long replayed;
+    private long skipped;
+    private long failures;
+    private final TreeMap<Integer, Long> exceptions = new TreeMap<>();
+    private ModbusLatencyHistogram latency = new ModbusLatencyHistogram();
+
+    public ModbusReplay(Path captureDirectory, boolean realtime) {
+        this.captureDirectory = captureDirectory;
+        this.realtime = realtime;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: java modbus.ModbusReplay captureDir parse|simulator|host:port"
+                    + " [--realtime] [--repeat N] [--include-writes]");
+            return;
+        }
+        boolean realtime = false;
+        boolean includeWrites = false;
+        int repeat = 1;
+        for (int i = 2; i < args.length; i++) {
+            switch (args[i]) {
+                case "--realtime":
+                    realtime = true;
+                    break;
+                case "--include-writes":
+                    includeWrites = true;
+                    break;
+                case "--repeat":
+                    repeat = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        ModbusReplay replay = new ModbusReplay(Paths.get(args[0]), realtime);
+        long start = System.nanoTime();
+        String target = args[1];
+        if (target.equals("parse")) {
+            replay.replayThroughParsers(repeat);
+        } else if (target.equals("simulator")) {
+            try (ModbusServerSimulator simulator = new ModbusServerSimulator(0)) {
+                replay.replayToServer("127.0.0.1", simulator.getPort(), true);
+            }
+        } else {
+            int colon = target.lastIndexOf(':');
+            if (colon < 0) {
+                throw new IllegalArgumentException("Expected parse, simulator or host:port but got: " + target);
+            }
+            replay.replayToServer(target.substring(0, colon), Integer.parseInt(target.substring(colon + 1)),
+                    includeWrites);
+        }
+        replay.printReport(System.nanoTime() - start);
+    }
+
+    // ========================================================================
+    // Section: Parser Replay
+    // ========================================================================
+
+    public void replayThroughParsers(int repeat) throws IOException {
+        reset();
+        ModbusTCP codec = new ModbusTCP();
+        Map<Integer, byte[]> requests = new HashMap<>();
+        for (int pass = 0; pass < repeat; pass++) {
+            requests.clear();
+            try (ModbusCapture.Reader reader = new ModbusCapture.Reader(captureDirectory)) {
+                long firstTimestamp = Long.MIN_VALUE;
+                long startNanos = System.nanoTime();
+                while (reader.next()) {
+                    frames++;
+                    if (firstTimestamp == Long.MIN_VALUE) {
+                        firstTimestamp = reader.timestampNanos();
+                    }
+                    pace(startNanos, reader.timestampNanos() - firstTimestamp);
+                    byte[] adu = reader.frameBytes();
+                    if (adu.length < 8) {
+                        skipped++;
+                        continue;
+                    }
+                    int key = (reader.streamId() << 16) | ((adu[0] & 0xFF) << 8) | (adu[1] & 0xFF);
+                    if (!reader.isResponse()) {
+                        requests.put(key, adu);
+                        continue;
+                    }
+                    byte[] request = requests.remove(key);
+                    if (request == null) {
+                        skipped++;
+                        continue;
+                    }
+                    long parseStart = System.nanoTime();
+                    parseResponse(codec, request, adu);
+                    latency.recordValue(System.nanoTime() - parseStart);
+                }
+            }
+        }
+    }
+
+    private void parseResponse(ModbusTCP codec, byte[] request, byte[] response) {
+        int functionCode = request[7] & 0xFF;
+        int start = request.length >= 12 ? ((request[8] & 0xFF) << 8) | (request[9] & 0xFF) : 0;
+        int quantity = request.length >= 12 ? ((request[10] & 0xFF) << 8) | (request[11] & 0xFF) : 0;
+        try {
+            switch (functionCode) {
+                case 0x01:
+                    codec.parseReadCoilsResponse(response, quantity);
+                    break;
+                case 0x03:
+                    codec.parseReadRegistersResponse(response, quantity);
+                    break;
+                case 0x17:
+                    codec.parseReadWriteMultipleRegistersResponse(response, quantity);
+                    break;
+                case 0x05:
+                case 0x06:
+                    codec.validateWriteResponse(response, functionCode);
+                    break;
+                case 0x0F:
+                case 0x10:
+                    codec.validateWriteMultipleResponse(response, functionCode, start, quantity);
+                    break;
+                default:
+                    // No parser in ModbusTCP for this function code.
+                    skipped++;
+                    return;
+            }
+            replayed++;
+        } catch (ModbusException e) {
+            replayed++;
+            exceptions.merge(e.getExceptionCode() & 0xFF, 1L, Long::sum);
+        } catch (IOException e) {
+            failures++;
+        }
+    }
+
+    // --- End of Parser Replay Section ---
+
+    // ========================================================================
+    // Section: Server Replay
+    // ========================================================================
+
+    public void replayToServer(String host, int port, boolean includeWrites) throws IOException {
+        reset();
+        ModbusTCP client = new ModbusTCP();
+        client.setMetrics(ModbusMetrics.NONE);
+        client.connect(host, port);
+        try (ModbusCapture.Reader reader = new ModbusCapture.Reader(captureDirectory)) {
+            long firstTimestamp = Long.MIN_VALUE;
+            long startNanos = System.nanoTime();
+            while (reader.next()) {
+                frames++;
+                if (reader.isResponse()) {
+                    continue;
+                }
+                byte[] adu = reader.frameBytes();
+                if (adu.length < 8 || (!includeWrites && isWrite(adu[7] & 0xFF))) {
+                    skipped++;
+                    continue;
+                }
+                if (firstTimestamp == Long.MIN_VALUE) {
+                    firstTimestamp = reader.timestampNanos();
+                }
+                pace(startNanos, reader.timestampNanos() - firstTimestamp);
+                long sendStart = System.nanoTime();
+                try {
+                    byte[] responsePdu = client.forwardPdu(adu[6] & 0xFF, Arrays.copyOfRange(adu, 7, adu.length));
+                    latency.recordValue(System.nanoTime() - sendStart);
+                    replayed++;
+                    if ((responsePdu[0] & 0x80) != 0 && responsePdu.length > 1) {
+                        exceptions.merge(responsePdu[1] & 0xFF, 1L, Long::sum);
+                    }
+                } catch (IOException e) {
+                    failures++;
+                    if (!client.isConnected()) {
+                        client.connect(host, port);
+                    }
+                }
+            }
+        } finally {
+            client.disconnect();
+        }
+    }
+
+    private static boolean isWrite(int functionCode) {
+        switch (functionCode) {
+            case 0x05:
+            case 0x06:
+            case 0x0F:
+            case 0x10:
+            case 0x16:
+            case 0x17:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // --- End of Server Replay Section ---
+
+    // Sleeps until offsetNanos after startNanos when replaying in real time.
+    private void pace(long startNanos, long offsetNanos) {
+        if (!realtime) {
+            return;
+        }
+        long wait;
+        while ((wait = startNanos + offsetNanos - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(wait);
+        }
+    }
+
+    private void reset() {
+        frames = 0;
+        replayed = 0;
+        skipped = 0;
+        failures = 0;
+        exceptions.clear();
+        latency = new ModbusLatencyHistogram();
+    }
+
+    public long getFrameCount() {
+        return frames;
+    }
+
+    public long getReplayedCount() {
+        return replayed;
+    }
+
+    public long getSkippedCount() {
+        return skipped;
+    }
+
+    public long getFailureCount() {
+        return failures;
+    }
+
+    // Modbus exception replies by code.
+    public Map<Integer, Long> getExceptionCounts() {
+        return new TreeMap<>(exceptions);
+    }
+
+    public ModbusLatencyHistogram getLatency() {
+        return latency;
+    }
+
+    private void printReport(long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf("frames read %d, replayed %d, skipped %d, failed %d in %.3f s (%.0f replayed/s)%n",
+                frames, replayed, skipped, failures, seconds, replayed / seconds);
+        System.out.printf("latency us: p50 %.1f  p99 %.1f  max %.1f%n",
+                latency.getValueAtPercentile(50) / 1000.0, latency.getValueAtPercentile(99) / 1000.0,
+                latency.getMaxValue() / 1000.0);
+        for (Map.Entry<Integer, Long> entry : exceptions.entrySet()) {
+            System.out.printf("exception 0x%02X %s: %d%n", entry.getKey(),
+                    ModbusException.getModbusExceptionMessage((byte) (int) entry.getKey()), entry.getValue());
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package modbus;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ============================================================================
+ * Modbus RTT Estimator - Adaptive Per-Unit Timeouts in the Style of TCP RTO
+ * ============================================================================
+ * Tracks a smoothed round-trip time and its mean deviation for every unit
+ * ID, as RFC 6298 does for TCP:
+ *
+ *   first sample R:  SRTT = R, RTTVAR = R / 2
+ *   later samples:   RTTVAR = 3/4 RTTVAR + 1/4 |SRTT - R|
+ *                    SRTT   = 7/8 SRTT   + 1/8 R
+ *   timeout:         RTO = SRTT + max(1 ms, 4 RTTVAR), clamped to [min, max]
+ *
+ * Until a unit has answered once its timeout is maxMillis. Every timeout
+ * doubles that unit's RTO, up to maxMillis, and the next answer recomputes
+ * it from the estimates. A PLC that normally replies in 8 ms thus times out
+ * in tens of milliseconds instead of after a fixed 5 s, and one that slows
+ * down gets a longer timeout as it does. Attach with
+ * ModbusTCP.setAdaptiveTimeout(); one estimator may be shared by several
+ * connections to the same device.
+ */
+public class ModbusRttEstimator {
+
+    private static final long GRANULARITY_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final long minNanos;
+    private final long maxNanos;
+
+    // --- Per-Unit State (guarded by this) ---
+    private final long[] smoothedRtt = new long[256];
+    private final long[] rttVariation = new long[256];
+    private final long[] timeoutNanos = new long[256];
+    private final boolean[] sampled = new boolean[256];
+
+    public ModbusRttEstimator(int minMillis, int maxMillis) {
+        if (minMillis < 1 || maxMillis < minMillis) {
+            throw new IllegalArgumentException("Timeout bounds must satisfy 1 <= min <= max, but were "
+                    + minMillis + " / " + maxMillis);
+        }
+        this.minNanos = TimeUnit.MILLISECONDS.toNanos(minMillis);
+        this.maxNanos = TimeUnit.MILLISECONDS.toNanos(maxMillis);
+        Arrays.fill(timeoutNanos, maxNanos);
+    }
+
+    public ModbusRttEstimator() {
+        this(20, 5000);
+    }
+
+    public synchronized void recordRtt(int unitId, long rttNanos) {
+        int unit = unitId & 0xFF;
+        if (!sampled[unit]) {
+            smoothedRtt[unit] = rttNanos;
+            rttVariation[unit] = rttNanos / 2;
+            sampled[unit] = true;
+        } else {
+            long error = Math.abs(smoothedRtt[unit] - rttNanos);
+            rttVariation[unit] += (error - rttVariation[unit]) >> 2;
+            smoothedRtt[unit] += (rttNanos - smoothedRtt[unit]) >> 3;
+        }
+        long timeout = smoothedRtt[unit] + Math.max(GRANULARITY_NANOS, 4 * rttVariation[unit]);
+        timeoutNanos[unit] = Math.min(maxNanos, Math.max(minNanos, timeout));
+    }
+
+    public synchronized void recordTimeout(int unitId) {
+        int unit = unitId & 0xFF;
+        timeoutNanos[unit] = Math.min(maxNanos, timeoutNanos[unit] * 2);
+    }
+
+    // Rounded up to whole milliseconds, since socket timeouts are set in ms.
+    public synchronized int getTimeoutMillis(int unitId) {
+        return (int) ((timeoutNanos[unitId & 0xFF] + 999_999) / 1_000_000);
+    }
+
+    // 0 until the unit has answered once.
+    public synchronized double getSmoothedRttMillis(int unitId) {
+        return smoothedRtt[unitId & 0xFF] / 1e6;
+    }
+
+    public synchronized double getRttVariationMillis(int unitId) {
+        return rttVariation[unitId & 0xFF] / 1e6;
+    }
+}
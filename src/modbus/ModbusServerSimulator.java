@@ -0,0 +1,479 @@
+package modbus;
+
+import java.io.*;
+import java.net.*;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * ============================================================================
+ * Modbus TCP Server Simulator - In-Process Stand-In for a Delta PLC
+ * ============================================================================
+ * Serves coil and holding-register memory over Modbus TCP so ModbusTCP,
+ * InteractiveTestModbusTCP and the benchmarks can run without hardware.
+ * The readable/writable windows mirror plcAddressToModbus:
+ * M0-M1535 at 0x0800, M1536-M8191 at 0xB000 and D0-D9999 at 0x1000 (T and
+ * C, at 0x1C00 and 0x1E00, fall inside the D window). Anything else answers
+ * Illegal Data Address.
+ *
+ * Supports FC01, FC03, FC05, FC06, FC15, FC16 and FC23. Each connection is
+ * served on its own virtual thread, and replies may be delayed, jittered,
+ * replaced by an injected exception or dropped together with the connection.
+ *
+ * Usage: java modbus.ModbusServerSimulator [port]
+ */
+public final class ModbusServerSimulator implements Closeable {
+
+    private static final int COIL_LOW_BASE = 0x800;
+    private static final int COIL_LOW_COUNT = 1536;
+    private static final int COIL_HIGH_BASE = 0xB000;
+    private static final int COIL_HIGH_COUNT = 8192 - 1536;
+    private static final int REGISTER_BASE = 0x1000;
+    private static final int REGISTER_COUNT = 10000;
+
+    // --- Server State ---
+    private final ServerSocket serverSocket;
+    private final ExecutorService connectionThreads = Executors.newVirtualThreadPerTaskExecutor();
+    private final ScheduledExecutorService responseScheduler;
+    private final Set<Socket> clients = ConcurrentHashMap.newKeySet();
+    private final AtomicLong requestCount = new AtomicLong();
+
+    // --- Memory (guarded by memoryLock) ---
+    private final Object memoryLock = new Object();
+    private final int[] registers = new int[65536];
+    private final boolean[] coils = new boolean[65536];
+
+    // --- Fault Injection ---
+    private volatile int latencyMillis = 0;
+    private volatile int jitterMillis = 0;
+    private volatile double exceptionRate = 0.0;
+    private volatile byte injectedExceptionCode = 0x04;
+    private volatile double dropRate = 0.0;
+
+    public ModbusServerSimulator(int port) throws IOException {
+        serverSocket = new ServerSocket(port, 1024, InetAddress.getLoopbackAddress());
+        responseScheduler = Executors.newScheduledThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "modbus-simulator-responder");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Thread acceptor = new Thread(this::acceptLoop, "modbus-simulator-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 5020;
+        ModbusServerSimulator simulator = new ModbusServerSimulator(port);
+        ModbusLog.info("Modbus simulator listening on 127.0.0.1:" + simulator.getPort());
+        Thread.currentThread().join();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    public int getClientCount() {
+        return clients.size();
+    }
+
+    // ========================================================================
+    // Section: Fault Injection
+    // Purpose: Shape the simulator's timing and failure behaviour.
+    // ========================================================================
+
+    public void setLatency(int latencyMillis, int jitterMillis) {
+        if (latencyMillis < 0 || jitterMillis < 0) {
+            throw new IllegalArgumentException("Latency and jitter cannot be negative");
+        }
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+    }
+
+    /*
+     * Note:
+     * rate is the probability (0.0-1.0) that a request is answered with
+     * exceptionCode instead of being executed.
+     */
+    public void setExceptionInjection(double rate, byte exceptionCode) {
+        validateRate(rate);
+        this.exceptionRate = rate;
+        this.injectedExceptionCode = exceptionCode;
+    }
+
+    // Probability (0.0-1.0) that a request closes its connection unanswered.
+    public void setDropRate(double rate) {
+        validateRate(rate);
+        this.dropRate = rate;
+    }
+
+    public void dropAllConnections() {
+        for (Socket client : clients) {
+            closeQuietly(client);
+        }
+    }
+
+    private static void validateRate(double rate) {
+        if (rate < 0.0 || rate > 1.0) {
+            throw new IllegalArgumentException("Rate must be between 0.0 and 1.0, but was " + rate);
+        }
+    }
+
+    // --- End of Fault Injection Section ---
+
+    // ========================================================================
+    // Section: Memory Access
+    // Purpose: Seed and inspect simulated PLC memory by PLC address.
+    // ========================================================================
+
+    public void setRegister(String plcAddress, int value) {
+        int address = ModbusTCP.plcAddressToModbus(plcAddress);
+        synchronized (memoryLock) {
+            registers[address] = value & 0xFFFF;
+        }
+    }
+
+    public int getRegister(String plcAddress) {
+        int address = ModbusTCP.plcAddressToModbus(plcAddress);
+        synchronized (memoryLock) {
+            return registers[address];
+        }
+    }
+
+    public void setCoil(String plcAddress, boolean value) {
+        int address = ModbusTCP.plcAddressToModbus(plcAddress);
+        synchronized (memoryLock) {
+            coils[address] = value;
+        }
+    }
+
+    public boolean getCoil(String plcAddress) {
+        int address = ModbusTCP.plcAddressToModbus(plcAddress);
+        synchronized (memoryLock) {
+            return coils[address];
+        }
+    }
+
+    static boolean isCoilRange(int start, int quantity) {
+        return within(start, quantity, COIL_LOW_BASE, COIL_LOW_COUNT)
+                || within(start, quantity, COIL_HIGH_BASE, COIL_HIGH_COUNT);
+    }
+
+    static boolean isRegisterRange(int start, int quantity) {
+        return within(start, quantity, REGISTER_BASE, REGISTER_COUNT);
+    }
+
+    private static boolean within(int start, int quantity, int base, int count) {
+        return start >= base && start + quantity <= base + count;
+    }
+
+    // --- End of Memory Access Section ---
+
+    // ========================================================================
+    // Section: Connection Handling
+    // Purpose: Accept clients and frame their requests.
+    // ========================================================================
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                clients.add(socket);
+                connectionThreads.execute(() -> serve(socket));
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        ReentrantLock writeLock = new ReentrantLock();
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            byte[] mbap = new byte[7];
+            while (true) {
+                in.readFully(mbap);
+                int length = ((mbap[4] & 0xFF) << 8) | (mbap[5] & 0xFF);
+                if (length < 2 || length > ModbusTCP.MAX_ADU_LENGTH - 6) {
+                    throw new IOException("Invalid request length in MBAP header: " + length);
+                }
+                byte[] pdu = new byte[length - 1];
+                in.readFully(pdu);
+                requestCount.incrementAndGet();
+
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                if (dropRate > 0 && random.nextDouble() < dropRate) {
+                    return;
+                }
+                byte[] responsePdu = exceptionRate > 0 && random.nextDouble() < exceptionRate
+                        ? exceptionPdu(pdu[0], injectedExceptionCode)
+                        : handle(pdu);
+                byte[] responseAdu = frame(mbap, responsePdu);
+
+                int delay = latencyMillis + (jitterMillis > 0 ? random.nextInt(jitterMillis + 1) : 0);
+                if (delay == 0) {
+                    send(out, writeLock, responseAdu, socket);
+                } else {
+                    responseScheduler.schedule(() -> send(out, writeLock, responseAdu, socket), delay,
+                            TimeUnit.MILLISECONDS);
+                }
+            }
+        } catch (IOException e) {
+            // Client closed the connection or sent garbage; drop it.
+        } finally {
+            clients.remove(socket);
+            closeQuietly(socket);
+        }
+    }
+
+    private static void send(DataOutputStream out, ReentrantLock writeLock, byte[] responseAdu, Socket socket) {
+        writeLock.lock();
+        try {
+            out.write(responseAdu);
+            out.flush();
+        } catch (IOException e) {
+            closeQuietly(socket);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private static byte[] frame(byte[] requestMbap, byte[] responsePdu) {
+        byte[] adu = new byte[7 + responsePdu.length];
+        adu[0] = requestMbap[0];
+        adu[1] = requestMbap[1];
+        adu[4] = (byte) ((responsePdu.length + 1) >>> 8);
+        adu[5] = (byte) ((responsePdu.length + 1) & 0xFF);
+        adu[6] = requestMbap[6];
+        System.arraycopy(responsePdu, 0, adu, 7, responsePdu.length);
+        return adu;
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Already closed.
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        dropAllConnections();
+        responseScheduler.shutdownNow();
+        connectionThreads.shutdownNow();
+    }
+
+    // --- End of Connection Handling Section ---
+
+    // ========================================================================
+    // Section: Request Execution
+    // Purpose: Execute one request PDU against memory and build the reply.
+    // ========================================================================
+
+    byte[] handle(byte[] pdu) {
+        int functionCode = pdu[0] & 0xFF;
+        switch (functionCode) {
+            case 0x01:
+                return readCoils(pdu);
+            case 0x03:
+                return readRegisters(pdu, 0x03, 1);
+            case 0x05:
+                return writeSingleCoil(pdu);
+            case 0x06:
+                return writeSingleRegister(pdu);
+            case 0x0F:
+                return writeMultipleCoils(pdu);
+            case 0x10:
+                return writeMultipleRegisters(pdu);
+            case 0x17:
+                return readWriteMultipleRegisters(pdu);
+            default:
+                return exceptionPdu(pdu[0], (byte) 0x01); // Illegal Function
+        }
+    }
+
+    private byte[] readCoils(byte[] pdu) {
+        if (pdu.length != 5) {
+            return exceptionPdu(pdu[0], (byte) 0x03);
+        }
+        int start = readShort(pdu, 1);
+        int quantity = readShort(pdu, 3);
+        if (quantity < 1 || quantity > ModbusTCP.MAX_READ_COILS) {
+            return exceptionPdu(pdu[0], (byte) 0x03);
+        }
+        if (!isCoilRange(start, quantity)) {
+            return exceptionPdu(pdu[0], (byte) 0x02);
+        }
+        int byteCount = (quantity + 7) / 8;
+        byte[] response = new byte[2 + byteCount];
+        response[0] = 0x01;
+        response[1] = (byte) byteCount;
+        synchronized (memoryLock) {
+            for (int i = 0; i < quantity; i++) {
+                if (coils[start + i]) {
+                    response[2 + (i >>> 3)] |= (byte) (1 << (i & 7));
+                }
+            }
+        }
+        return response;
+    }
+
+    // Shared by FC03 and the read half of FC23; fieldOffset locates start/quantity.
+    private byte[] readRegisters(byte[] pdu, int functionCode, int fieldOffset) {
+        if (functionCode == 0x03 && pdu.length != 5) {
+            return exceptionPdu(pdu[0], (byte) 0x03);
+        }
+        int start = readShort(pdu, fieldOffset);
+        int quantity = readShort(pdu, fieldOffset + 2);
+        if (quantity < 1 || quantity > ModbusTCP.MAX_READ_REGISTERS) {
+            return exceptionPdu(pdu[0], (byte) 0x03);
+        }
+        if (!isRegisterRange(start, quantity)) {
+            return exceptionPdu(pdu[0], (byte) 0x02);
+        }
+        byte[] response = new byte[2 + quantity * 2];
+        response[0] = (byte) functionCode;
+        response[1] = (byte) (quantity * 2);
+        synchronized (memoryLock) {
+            for (int i = 0; i < quantity; i++) {
+                response[2 + i * 2] = (byte) (registers[start + i] >>> 8);
+                response[3 + i * 2] = (byte) (registers[start + i] & 0xFF);
+            }
+        }
+        return response;
+    }
+
+    private byte[] writeSingleCoil(byte[] pdu) {
+        if (pdu.length != 5) {
+            return exceptionPdu(pdu[0], (byte) 0x03);
+        }
+        int address = readShort(pdu, 1);
+        int value = readShort(pdu, 3);
+        if (value != 0xFF00 && value != 0x0000) {
+            return exceptionPdu(pdu[0], (byte) 0x03);
+        }
+        if (!isCoilRange(address, 1)) {
+            return exceptionPdu(pdu[0], (byte) 0x02);
+        }
+        synchronized (memoryLock) {
+            coils[address] = value == 0xFF00;
+        }
+        return pdu.clone();
+    }
+
+    private byte[] writeSingleRegister(byte[] pdu) {
+        if (pdu.length != 5) {
+            return exceptionPdu(pdu[0], (byte) 0x03);
+        }
+        int address = readShort(pdu, 1);
+        if (!isRegisterRange(address, 1)) {
+            return exceptionPdu(pdu[0], (byte) 0x02);
+        }
+        synchronized (memoryLock) {
+            registers[address] = readShort(pdu, 3);
+        }
+        return pdu.clone();
+    }
+
+    private byte[] writeMultipleCoils(byte[] pdu) {
+        if (pdu.length < 7) {
+            return exceptionPdu(pdu[0], (byte) 0x03);
+        }
+        int start = readShort(pdu, 1);
+        int quantity = readShort(pdu, 3);
+        int byteCount = pdu[5] & 0xFF;
+        if (quantity < 1 || quantity > ModbusTCP.MAX_WRITE_COILS || byteCount != (quantity + 7) / 8
+                || pdu.length != 6 + byteCount) {
+            return exceptionPdu(pdu[0], (byte) 0x03);
+        }
+        if (!isCoilRange(start, quantity)) {
+            return exceptionPdu(pdu[0], (byte) 0x02);
+        }
+        synchronized (memoryLock) {
+            for (int i = 0; i < quantity; i++) {
+                coils[start + i] = (pdu[6 + (i >>> 3)] & (1 << (i & 7))) != 0;
+            }
+        }
+        return writeMultipleResponse(pdu);
+    }
+
+    private byte[] writeMultipleRegisters(byte[] pdu) {
+        if (pdu.length < 8) {
+            return exceptionPdu(pdu[0], (byte) 0x03);
+        }
+        int start = readShort(pdu, 1);
+        int quantity = readShort(pdu, 3);
+        int byteCount = pdu[5] & 0xFF;
+        if (quantity < 1 || quantity > ModbusTCP.MAX_WRITE_REGISTERS || byteCount != quantity * 2
+                || pdu.length != 6 + byteCount) {
+            return exceptionPdu(pdu[0], (byte) 0x03);
+        }
+        if (!isRegisterRange(start, quantity)) {
+            return exceptionPdu(pdu[0], (byte) 0x02);
+        }
+        synchronized (memoryLock) {
+            for (int i = 0; i < quantity; i++) {
+                registers[start + i] = readShort(pdu, 6 + i * 2);
+            }
+        }
+        return writeMultipleResponse(pdu);
+    }
+
+    private byte[] readWriteMultipleRegisters(byte[] pdu) {
+        if (pdu.length < 12) {
+            return exceptionPdu(pdu[0], (byte) 0x03);
+        }
+        int writeStart = readShort(pdu, 5);
+        int writeQuantity = readShort(pdu, 7);
+        int byteCount = pdu[9] & 0xFF;
+        if (writeQuantity < 1 || writeQuantity > ModbusTCP.MAX_READ_WRITE_REGISTERS
+                || byteCount != writeQuantity * 2 || pdu.length != 10 + byteCount) {
+            return exceptionPdu(pdu[0], (byte) 0x03);
+        }
+        if (!isRegisterRange(writeStart, writeQuantity)) {
+            return exceptionPdu(pdu[0], (byte) 0x02);
+        }
+        // Write first, then read, as the specification requires; one lock
+        // hold keeps the pair atomic with respect to other clients.
+        synchronized (memoryLock) {
+            int readStart = readShort(pdu, 1);
+            int readQuantity = readShort(pdu, 3);
+            if (readQuantity < 1 || readQuantity > ModbusTCP.MAX_READ_REGISTERS) {
+                return exceptionPdu(pdu[0], (byte) 0x03);
+            }
+            if (!isRegisterRange(readStart, readQuantity)) {
+                return exceptionPdu(pdu[0], (byte) 0x02);
+            }
+            for (int i = 0; i < writeQuantity; i++) {
+                registers[writeStart + i] = readShort(pdu, 10 + i * 2);
+            }
+            return readRegisters(pdu, 0x17, 1);
+        }
+    }
+
+    private static byte[] writeMultipleResponse(byte[] pdu) {
+        byte[] response = new byte[5];
+        System.arraycopy(pdu, 0, response, 0, 5);
+        return response;
+    }
+
+    private static byte[] exceptionPdu(byte functionCode, byte exceptionCode) {
+        return new byte[] { (byte) (functionCode | 0x80), exceptionCode };
+    }
+
+    private static int readShort(byte[] pdu, int offset) {
+        return ((pdu[offset] & 0xFF) << 8) | (pdu[offset + 1] & 0xFF);
+    }
+
+    // --- End of Request Execution Section ---
+}
@@ -0,0 +1,241 @@
+package modbus;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ============================================================================
+ * Modbus Subscriptions - Change Detection That Delivers Only Deltas
+ * ============================================================================
+ * Registers listeners on PLC address ranges of one device. Every poll() reads
+ * each range through the allocation-free *Direct path and compares it with
+ * the last snapshot. Registers are kept in a short[] and coils in a long[]
+ * bitmap. Listeners receive only the indices and values that changed.
+ * Register subscriptions can use a deadband: a value is reported only once
+ * it moves more than the deadband away from the last reported value.
+ *
+ * All buffers are allocated at subscribe time, so a scan where nothing
+ * changed allocates nothing. The indices/values arrays handed to a listener
+ * are reused and only valid during the callback. The first poll reports
+ * every index, so listeners start from a complete picture.
+ */
+public class ModbusSubscriptions {
+
+    public interface RegisterChangeListener {
+        void onChange(RegisterSubscription subscription, int[] indices, int[] values, int count);
+    }
+
+    public interface CoilChangeListener {
+        void onChange(CoilSubscription subscription, int[] indices, boolean[] values, int count);
+    }
+
+    private final ModbusTCP client;
+    private final int unitId;
+    private final List<RegisterSubscription> registerSubscriptions = new ArrayList<>();
+    private final List<CoilSubscription> coilSubscriptions = new ArrayList<>();
+
+    public ModbusSubscriptions(ModbusTCP client, int unitId) {
+        this.client = client;
+        this.unitId = unitId;
+    }
+
+    public synchronized RegisterSubscription subscribeRegisters(String plcStartAddress, int quantity, int deadband,
+            RegisterChangeListener listener) {
+        if (quantity < 1 || deadband < 0) {
+            throw new IllegalArgumentException("Quantity must be positive and deadband non-negative");
+        }
+        RegisterSubscription subscription = new RegisterSubscription(plcStartAddress,
+                ModbusTCP.plcAddressToModbus(plcStartAddress), quantity, deadband, listener);
+        registerSubscriptions.add(subscription);
+        return subscription;
+    }
+
+    public synchronized CoilSubscription subscribeCoils(String plcStartAddress, int quantity,
+            CoilChangeListener listener) {
+        if (quantity < 1) {
+            throw new IllegalArgumentException("Quantity must be positive");
+        }
+        CoilSubscription subscription = new CoilSubscription(plcStartAddress,
+                ModbusTCP.plcAddressToModbus(plcStartAddress), quantity, listener);
+        coilSubscriptions.add(subscription);
+        return subscription;
+    }
+
+    public synchronized void unsubscribe(RegisterSubscription subscription) {
+        registerSubscriptions.remove(subscription);
+    }
+
+    public synchronized void unsubscribe(CoilSubscription subscription) {
+        coilSubscriptions.remove(subscription);
+    }
+
+    /*
+     * Note:
+     * Reads every subscribed range once and notifies listeners of changes.
+     * A range whose read fails, or whose listener throws, is logged and
+     * skipped; the remaining ranges are still polled. The first failure is
+     * rethrown at the end, with any later ones attached as suppressed.
+     */
+    public synchronized void poll() throws IOException {
+        Exception first = null;
+        for (int i = 0; i < registerSubscriptions.size(); i++) {
+            RegisterSubscription subscription = registerSubscriptions.get(i);
+            try {
+                subscription.poll();
+            } catch (IOException | RuntimeException e) {
+                first = failed(subscription.plcStartAddress, first, e);
+            }
+        }
+        for (int i = 0; i < coilSubscriptions.size(); i++) {
+            CoilSubscription subscription = coilSubscriptions.get(i);
+            try {
+                subscription.poll();
+            } catch (IOException | RuntimeException e) {
+                first = failed(subscription.plcStartAddress, first, e);
+            }
+        }
+        if (first instanceof IOException) {
+            throw (IOException) first;
+        }
+        if (first != null) {
+            throw (RuntimeException) first;
+        }
+    }
+
+    private static Exception failed(String plcStartAddress, Exception first, Exception e) {
+        ModbusLog.error("Subscription at " + plcStartAddress + " failed: " + e.getMessage());
+        if (first == null) {
+            return e;
+        }
+        first.addSuppressed(e);
+        return first;
+    }
+
+    // ========================================================================
+    // Section: Register Subscription
+    // ========================================================================
+
+    public final class RegisterSubscription {
+        private final String plcStartAddress;
+        private final int startAddress;
+        private final int quantity;
+        private final int deadband;
+        private final RegisterChangeListener listener;
+
+        private final short[] snapshot;
+        private final int[] scratch;
+        private final int[] changedIndices;
+        private final int[] changedValues;
+        private boolean primed = false;
+
+        private RegisterSubscription(String plcStartAddress, int startAddress, int quantity, int deadband,
+                RegisterChangeListener listener) {
+            this.plcStartAddress = plcStartAddress;
+            this.startAddress = startAddress;
+            this.quantity = quantity;
+            this.deadband = deadband;
+            this.listener = listener;
+            this.snapshot = new short[quantity];
+            this.scratch = new int[quantity];
+            this.changedIndices = new int[quantity];
+            this.changedValues = new int[quantity];
+        }
+
+        private void poll() throws IOException {
+            for (int offset = 0; offset < quantity; offset += ModbusTCP.MAX_READ_REGISTERS) {
+                int chunk = Math.min(ModbusTCP.MAX_READ_REGISTERS, quantity - offset);
+                client.readHoldingRegistersDirect(unitId, startAddress + offset, chunk, scratch, offset);
+            }
+
+            int count = 0;
+            for (int i = 0; i < quantity; i++) {
+                int value = scratch[i];
+                int previous = snapshot[i] & 0xFFFF;
+                if (!primed || Math.abs(value - previous) > deadband) {
+                    snapshot[i] = (short) value;
+                    changedIndices[count] = i;
+                    changedValues[count] = value;
+                    count++;
+                }
+            }
+            primed = true;
+            if (count > 0) {
+                listener.onChange(this, changedIndices, changedValues, count);
+            }
+        }
+
+        public String getPlcStartAddress() {
+            return plcStartAddress;
+        }
+
+        // Last reported value at index; deadband-filtered, not necessarily the latest read.
+        public int getValue(int index) {
+            return snapshot[index] & 0xFFFF;
+        }
+    }
+
+    // --- End of Register Subscription Section ---
+
+    // ========================================================================
+    // Section: Coil Subscription
+    // ========================================================================
+
+    public final class CoilSubscription {
+        private final String plcStartAddress;
+        private final int startAddress;
+        private final int quantity;
+        private final CoilChangeListener listener;
+
+        private final long[] snapshot;
+        private final boolean[] scratch;
+        private final int[] changedIndices;
+        private final boolean[] changedValues;
+        private boolean primed = false;
+
+        private CoilSubscription(String plcStartAddress, int startAddress, int quantity,
+                CoilChangeListener listener) {
+            this.plcStartAddress = plcStartAddress;
+            this.startAddress = startAddress;
+            this.quantity = quantity;
+            this.listener = listener;
+            this.snapshot = new long[(quantity + 63) >>> 6];
+            this.scratch = new boolean[quantity];
+            this.changedIndices = new int[quantity];
+            this.changedValues = new boolean[quantity];
+        }
+
+        private void poll() throws IOException {
+            for (int offset = 0; offset < quantity; offset += ModbusTCP.MAX_READ_COILS) {
+                int chunk = Math.min(ModbusTCP.MAX_READ_COILS, quantity - offset);
+                client.readCoilsDirect(unitId, startAddress + offset, chunk, scratch, offset);
+            }
+
+            int count = 0;
+            for (int i = 0; i < quantity; i++) {
+                long mask = 1L << (i & 63);
+                boolean previous = (snapshot[i >>> 6] & mask) != 0;
+                if (!primed || scratch[i] != previous) {
+                    snapshot[i >>> 6] ^= previous != scratch[i] ? mask : 0L;
+                    changedIndices[count] = i;
+                    changedValues[count] = scratch[i];
+                    count++;
+                }
+            }
+            primed = true;
+            if (count > 0) {
+                listener.onChange(this, changedIndices, changedValues, count);
+            }
+        }
+
+        public String getPlcStartAddress() {
+            return plcStartAddress;
+        }
+
+        public boolean getValue(int index) {
+            return (snapshot[index >>> 6] & (1L << (index & 63))) != 0;
+        }
+    }
+
+    // --- End of Coil Subscription Section ---
+}
@@ -0,0 +1,275 @@
+package modbus;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * ============================================================================
+ * Modbus Tag Registry - PLC Addresses Compiled Once into Primitive Handles
+ * ============================================================================
+ * A handle is a long that packs everything a request needs:
+ *
+ *   bit  62     : marker, so a plain number is never mistaken for a handle
+ *   bits 24-31  : PLC area letter ('D', 'M', 'T', 'C')
+ *   bits 16-23  : read function code (0x01 for coils, 0x03 for registers)
+ *   bits  0-15  : Modbus address
+ *
+ * compile("D500") builds a handle without a registry. The registry adds
+ * symbolic names ("Tank1.Level" -> D500), loaded one by one or in bulk from
+ * CSV. Names live in an open-addressing table of parallel arrays, and a
+ * second table maps handles back to names, so lookups hash and compare
+ * characters in place and allocate nothing.
+ *
+ * Pass handles to the ModbusTCP overloads that take a long tag, or use
+ * address(handle) with the *Direct methods.
+ */
+public class ModbusTagRegistry {
+
+    private static final long HANDLE_MARKER = 1L << 62;
+    private static final int EMPTY = -1;
+
+    // --- Tags, indexed by tag ID (guarded by this) ---
+    private String[] names = new String[16];
+    private long[] handles = new long[16];
+    private int size = 0;
+
+    // --- Open-addressing indexes holding tag IDs (guarded by this) ---
+    private int[] nameSlots = newSlots(32);
+    private long[] handleKeys = new long[32];
+    private int[] handleSlots = newSlots(32);
+
+    // ========================================================================
+    // Section: Handle Encoding
+    // ========================================================================
+
+    public static long compile(CharSequence plcAddress) throws IllegalArgumentException {
+        int address = ModbusTCP.plcAddressToModbus(plcAddress);
+        if (address > 0xFFFF) {
+            throw new IllegalArgumentException("Modbus address out of range for " + plcAddress + ": " + address);
+        }
+        char area = Character.toUpperCase(plcAddress.charAt(0));
+        int functionCode = area == 'M' ? 0x01 : 0x03;
+        return HANDLE_MARKER | ((long) area << 24) | ((long) functionCode << 16) | address;
+    }
+
+    public static int address(long handle) {
+        return (int) (handle & 0xFFFF);
+    }
+
+    public static int functionCode(long handle) {
+        return (int) ((handle >>> 16) & 0xFF);
+    }
+
+    public static char area(long handle) {
+        return (char) ((handle >>> 24) & 0xFF);
+    }
+
+    public static boolean isCoil(long handle) {
+        return functionCode(handle) == 0x01;
+    }
+
+    static void checkHandle(long handle, int readFunctionCode) {
+        if ((handle & ~0xFFFFFFFFL) != HANDLE_MARKER) {
+            throw new IllegalArgumentException("Not a compiled tag handle: " + handle);
+        }
+        if (functionCode(handle) != readFunctionCode) {
+            throw new IllegalArgumentException("Tag " + area(handle) + " at Modbus address " + address(handle)
+                    + (readFunctionCode == 0x01 ? " is not a coil" : " is not a register"));
+        }
+    }
+
+    // --- End of Handle Encoding Section ---
+
+    // ========================================================================
+    // Section: Registration and Lookup
+    // ========================================================================
+
+    public synchronized long register(String name, String plcAddress) throws IllegalArgumentException {
+        if (name == null || name.isEmpty()) {
+            throw new IllegalArgumentException("Tag name cannot be empty");
+        }
+        long handle = compile(plcAddress);
+        if (findName(name) != EMPTY) {
+            throw new IllegalArgumentException("Tag already registered: " + name);
+        }
+        ensureCapacity(size + 1);
+        int id = size++;
+        names[id] = name;
+        handles[id] = handle;
+        insertName(id);
+        insertHandle(id);
+        return handle;
+    }
+
+    public synchronized long handle(CharSequence name) throws IllegalArgumentException {
+        int id = findName(name);
+        if (id == EMPTY) {
+            throw new IllegalArgumentException("Unknown tag: " + name);
+        }
+        return handles[id];
+    }
+
+    public synchronized boolean contains(CharSequence name) {
+        return findName(name) != EMPTY;
+    }
+
+    // First name registered for handle, or null. Several names may share one address.
+    public synchronized String nameOf(long handle) {
+        int mask = handleSlots.length - 1;
+        for (int slot = mix(Long.hashCode(handle)) & mask; handleSlots[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if (handleKeys[slot] == handle) {
+                return names[handleSlots[slot]];
+            }
+        }
+        return null;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private int findName(CharSequence name) {
+        int mask = nameSlots.length - 1;
+        for (int slot = hash(name) & mask; nameSlots[slot] != EMPTY; slot = (slot + 1) & mask) {
+            String candidate = names[nameSlots[slot]];
+            if (candidate.contentEquals(name)) {
+                return nameSlots[slot];
+            }
+        }
+        return EMPTY;
+    }
+
+    private void insertName(int id) {
+        int mask = nameSlots.length - 1;
+        int slot = hash(names[id]) & mask;
+        while (nameSlots[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        nameSlots[slot] = id;
+    }
+
+    // Keeps the first name for a handle; later aliases are reachable by name only.
+    private void insertHandle(int id) {
+        int mask = handleSlots.length - 1;
+        int slot = mix(Long.hashCode(handles[id])) & mask;
+        while (handleSlots[slot] != EMPTY) {
+            if (handleKeys[slot] == handles[id]) {
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        handleKeys[slot] = handles[id];
+        handleSlots[slot] = id;
+    }
+
+    // Keeps both indexes at most half full so probe chains stay short.
+    private void ensureCapacity(int required) {
+        if (required > names.length) {
+            int capacity = Math.max(required, names.length * 2);
+            names = Arrays.copyOf(names, capacity);
+            handles = Arrays.copyOf(handles, capacity);
+        }
+        if (required * 2 > nameSlots.length) {
+            int slots = Integer.highestOneBit(required * 2 - 1) << 1;
+            nameSlots = newSlots(slots);
+            handleKeys = new long[slots];
+            handleSlots = newSlots(slots);
+            for (int id = 0; id < size; id++) {
+                insertName(id);
+                insertHandle(id);
+            }
+        }
+    }
+
+    private static int[] newSlots(int capacity) {
+        int[] slots = new int[capacity];
+        Arrays.fill(slots, EMPTY);
+        return slots;
+    }
+
+    // String.hashCode() computed on any CharSequence without copying, then spread.
+    private static int hash(CharSequence name) {
+        int h = 0;
+        for (int i = 0; i < name.length(); i++) {
+            h = 31 * h + name.charAt(i);
+        }
+        return mix(h);
+    }
+
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    // --- End of Registration and Lookup Section ---
+
+    // ========================================================================
+    // Section: CSV Bulk Load
+    // ========================================================================
+
+    /*
+     * Note:
+     * One tag per line as name,plcAddress; any further columns (description,
+     * units, ...) are ignored. Blank lines and lines starting with # are
+     * skipped, and so is a first line whose address column does not parse
+     * (a header). Returns the number of tags added. Either the whole file is
+     * loaded or, on the first bad line, nothing is.
+     */
+    public int loadCsv(Path file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return loadCsv(reader);
+        }
+    }
+
+    public synchronized int loadCsv(Reader source) throws IOException {
+        BufferedReader reader = source instanceof BufferedReader
+                ? (BufferedReader) source
+                : new BufferedReader(source, 1 << 16);
+        int sizeBefore = size;
+        int lineNumber = 0;
+        String line;
+        try {
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank() || line.startsWith("#")) {
+                    continue;
+                }
+                int comma = line.indexOf(',');
+                if (comma < 0) {
+                    throw new IOException("Line " + lineNumber + ": expected name,plcAddress but got: " + line);
+                }
+                int end = line.indexOf(',', comma + 1);
+                String name = line.substring(0, comma).trim();
+                String plcAddress = line.substring(comma + 1, end < 0 ? line.length() : end).trim();
+                try {
+                    register(name, plcAddress);
+                } catch (IllegalArgumentException e) {
+                    if (lineNumber == 1) {
+                        continue;
+                    }
+                    throw new IOException("Line " + lineNumber + ": " + e.getMessage(), e);
+                }
+            }
+        } catch (IOException e) {
+            truncate(sizeBefore);
+            throw e;
+        }
+        return size - sizeBefore;
+    }
+
+    private void truncate(int newSize) {
+        Arrays.fill(names, newSize, size, null);
+        size = newSize;
+        Arrays.fill(nameSlots, EMPTY);
+        Arrays.fill(handleSlots, EMPTY);
+        for (int id = 0; id < size; id++) {
+            insertName(id);
+            insertHandle(id);
+        }
+    }
+
+    // --- End of CSV Bulk Load Section ---
+}
@@ -0,0 +1,369 @@
+package modbus;
+
+import java.io.*;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * ============================================================================
+ * Modbus Unit Pipeline - Many Unit IDs Multiplexed over One Gateway Socket
+ * ============================================================================
+ * For TCP-to-serial gateways, where every unit ID is a separate slave on the
+ * serial line behind one socket. Requests queue per unit and are sent
+ * round-robin across the units that have work: at most maxInFlight on the
+ * socket, and at most maxPerUnit for any one unit. A unit with a long queue
+ * therefore cannot hold back the others.
+ *
+ * A request may wait in its queue for the client's fixed timeout; once sent
+ * it gets the full timeout of its own unit. A sent request that times out,
+ * or that the gateway answers with 0x0A (path unavailable) or 0x0B (target
+ * failed to respond), puts only its unit into a hold-off. Until that
+ * expires, the unit's requests are not sent; they are answered at once with
+ * a locally built 0x0B exception reply, so callers see the same
+ * ModbusException as from the gateway. The first normal reply from the unit
+ * clears the hold-off.
+ */
+class ModbusUnitPipeline extends ModbusPipeline {
+
+    private static final byte GATEWAY_PATH_UNAVAILABLE = 0x0A;
+    private static final byte GATEWAY_TARGET_FAILED = 0x0B;
+
+    private final int maxInFlight;
+    private final int maxPerUnit;
+    private final long holdOffNanos;
+
+    // --- Scheduling State (guarded by lock) ---
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Unit[] units = new Unit[256];
+    private final ArrayDeque<Unit> ready = new ArrayDeque<>();
+    private final ConcurrentHashMap<Integer, Request> sent = new ConcurrentHashMap<>();
+    private int active = 0;
+
+    ModbusUnitPipeline(DataInputStream in, DataOutputStream out, int maxInFlight, int maxPerUnit,
+            long holdOffMillis, Runnable onFailure) {
+        super(in, out, maxInFlight, onFailure);
+        if (maxPerUnit < 1) {
+            throw new IllegalArgumentException("Per-unit depth must be at least 1, but was " + maxPerUnit);
+        }
+        if (holdOffMillis < 0) {
+            throw new IllegalArgumentException("Hold-off cannot be negative");
+        }
+        this.maxInFlight = maxInFlight;
+        this.maxPerUnit = maxPerUnit;
+        this.holdOffNanos = TimeUnit.MILLISECONDS.toNanos(holdOffMillis);
+    }
+
+    private static final class Unit {
+        final int unitId;
+        final ArrayDeque<Request> queue = new ArrayDeque<>();
+        int inFlight = 0;
+        boolean scheduled = false;
+        long holdOffUntilNanos = 0;
+
+        Unit(int unitId) {
+            this.unitId = unitId;
+        }
+    }
+
+    private static final class Request {
+        final byte[] adu;
+        final int transactionId;
+        final Unit unit;
+        final CompletableFuture<byte[]> reply = new CompletableFuture<>();
+        final CountDownLatch dispatched = new CountDownLatch(1); // sent, answered locally or failed
+        boolean onWire = false;
+        volatile long sentNanos = 0; // set by whichever thread transmits it
+
+        Request(byte[] adu, Unit unit) {
+            this.adu = adu;
+            this.transactionId = ((adu[0] & 0xFF) << 8) | (adu[1] & 0xFF);
+            this.unit = unit;
+        }
+    }
+
+    // ========================================================================
+    // Section: Request Side
+    // ========================================================================
+
+    /*
+     * Note:
+     * Two separate budgets. queueTimeoutMillis bounds the wait for the
+     * request to be dispatched; a request still queued when it expires is
+     * withdrawn and fails with a plain IOException, which says nothing about
+     * the unit. Once sent, the request gets its full timeoutMillis, counted
+     * from sentNanos, and only that wire timeout puts the unit on hold-off.
+     */
+    @Override
+    byte[] execute(byte[] requestAdu, int queueTimeoutMillis, int timeoutMillis, long[] sentNanos) throws IOException {
+        List<Request> toSend = new ArrayList<>();
+        List<Request> toReject = new ArrayList<>();
+        Request request;
+
+        lock.lock();
+        try {
+            // Checked under lock: close() sets the flag first, then drains the queues under lock.
+            if (isClosed()) {
+                throw new IOException("Not connected. Cannot execute transaction.");
+            }
+            Unit unit = unit(requestAdu[6] & 0xFF);
+            request = new Request(requestAdu, unit);
+            if (isHeldOff(unit, System.nanoTime())) {
+                return gatewayTargetFailed(requestAdu);
+            }
+            if (sent.containsKey(request.transactionId)) {
+                throw new IOException("Transaction ID " + request.transactionId + " is already in flight.");
+            }
+            unit.queue.addLast(request);
+            schedule(unit);
+            dispatch(toSend, toReject);
+        } finally {
+            lock.unlock();
+        }
+        transmit(toSend, toReject);
+
+        try {
+            if (queueTimeoutMillis == 0) {
+                request.dispatched.await();
+            } else if (!request.dispatched.await(queueTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                if (withdraw(request)) {
+                    throw new IOException("Modbus request for unit " + request.unit.unitId + " still queued after "
+                            + queueTimeoutMillis + " ms");
+                }
+                request.dispatched.await(); // dispatched just now; the sending thread is about to write it
+            }
+            // sentNanos is 0 when the request was answered locally or failed without being sent.
+            if (timeoutMillis == 0 || request.sentNanos == 0) {
+                return request.reply.get();
+            }
+            long deadline = request.sentNanos + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            long remaining = Math.max(0, deadline - System.nanoTime());
+            return request.reply.get(remaining, TimeUnit.NANOSECONDS);
+
+        } catch (TimeoutException e) {
+            abandon(request, true);
+            throw new IOException("Modbus read timed out",
+                    new SocketTimeoutException("No response from unit " + request.unit.unitId + " for transaction "
+                            + request.transactionId + " after " + timeoutMillis + " ms"));
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Modbus pipeline failure: " + cause, cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (!withdraw(request)) {
+                abandon(request, false);
+            }
+            throw new InterruptedIOException("Interrupted while waiting for transaction " + request.transactionId);
+        } finally {
+            sentNanos[0] = request.sentNanos;
+        }
+    }
+
+    // Drops a request that is still queued; false if it has already been dispatched.
+    private boolean withdraw(Request request) {
+        lock.lock();
+        try {
+            return !request.onWire && request.unit.queue.remove(request);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // A sent request given up by its caller: free its slot, and hold the unit off if it went unanswered.
+    private void abandon(Request request, boolean timedOut) {
+        List<Request> toSend = new ArrayList<>();
+        List<Request> toReject = new ArrayList<>();
+        lock.lock();
+        try {
+            if (sent.remove(request.transactionId, request)) {
+                release(request.unit);
+                if (timedOut) {
+                    request.unit.holdOffUntilNanos = System.nanoTime() + holdOffNanos;
+                }
+                dispatch(toSend, toReject);
+            }
+        } finally {
+            lock.unlock();
+        }
+        transmit(toSend, toReject);
+    }
+
+    // --- End of Request Side Section ---
+
+    // ========================================================================
+    // Section: Scheduling
+    // Purpose: Round-robin over units with queued work, within the socket-wide
+    // and per-unit in-flight limits. All methods here run under lock.
+    // ========================================================================
+
+    private Unit unit(int unitId) {
+        Unit unit = units[unitId];
+        if (unit == null) {
+            unit = new Unit(unitId);
+            units[unitId] = unit;
+        }
+        return unit;
+    }
+
+    private void schedule(Unit unit) {
+        if (!unit.scheduled && !unit.queue.isEmpty() && unit.inFlight < maxPerUnit) {
+            unit.scheduled = true;
+            ready.addLast(unit);
+        }
+    }
+
+    private void release(Unit unit) {
+        unit.inFlight--;
+        active--;
+        schedule(unit);
+    }
+
+    private boolean isHeldOff(Unit unit, long now) {
+        return unit.holdOffUntilNanos != 0 && now - unit.holdOffUntilNanos < 0;
+    }
+
+    /*
+     * Note:
+     * Takes one request from each ready unit in turn and puts the unit back
+     * at the tail while it still has work and room. Requests of a held-off
+     * unit go to toReject instead, without taking a slot.
+     */
+    private void dispatch(List<Request> toSend, List<Request> toReject) {
+        long now = System.nanoTime();
+        while (active < maxInFlight && !ready.isEmpty()) {
+            Unit unit = ready.pollFirst();
+            unit.scheduled = false;
+            if (isHeldOff(unit, now)) {
+                toReject.addAll(unit.queue);
+                unit.queue.clear();
+                continue;
+            }
+            Request request = unit.queue.pollFirst();
+            if (request == null) {
+                continue; // its only request was abandoned while the unit waited its turn
+            }
+            if (sent.putIfAbsent(request.transactionId, request) != null) {
+                request.reply.completeExceptionally(new IOException(
+                        "Transaction ID " + request.transactionId + " is already in flight."));
+                request.dispatched.countDown();
+                schedule(unit);
+                continue;
+            }
+            request.onWire = true;
+            unit.inFlight++;
+            active++;
+            toSend.add(request);
+            schedule(unit);
+        }
+    }
+
+    /*
+     * Note:
+     * Runs outside the lock, on whichever thread freed the slot; that may be
+     * the reader thread. A write cannot block it for long: at most
+     * maxInFlight frames of 260 bytes are ever unanswered, far below the
+     * socket buffer.
+     */
+    private void transmit(List<Request> toSend, List<Request> toReject) {
+        for (Request request : toReject) {
+            request.reply.complete(gatewayTargetFailed(request.adu));
+            request.dispatched.countDown();
+        }
+        for (Request request : toSend) {
+            try {
+                request.sentNanos = System.nanoTime();
+                request.dispatched.countDown();
+                send(request.adu);
+            } catch (IOException e) {
+                request.reply.completeExceptionally(e);
+                fail(e);
+                return;
+            }
+        }
+    }
+
+    // --- End of Scheduling Section ---
+
+    // ========================================================================
+    // Section: Response Side
+    // ========================================================================
+
+    @Override
+    void onResponse(int transactionId, byte[] responseAdu) {
+        List<Request> toSend = new ArrayList<>();
+        List<Request> toReject = new ArrayList<>();
+        Request request = sent.remove(transactionId);
+        if (request == null) {
+            return; // late reply to a request that already timed out
+        }
+        lock.lock();
+        try {
+            release(request.unit);
+            boolean gatewayFailure = responseAdu.length > 8 && (responseAdu[7] & 0x80) != 0
+                    && (responseAdu[8] == GATEWAY_PATH_UNAVAILABLE || responseAdu[8] == GATEWAY_TARGET_FAILED);
+            request.unit.holdOffUntilNanos = gatewayFailure ? System.nanoTime() + holdOffNanos : 0;
+            dispatch(toSend, toReject);
+        } finally {
+            lock.unlock();
+        }
+        request.reply.complete(responseAdu);
+        transmit(toSend, toReject);
+    }
+
+    private static byte[] gatewayTargetFailed(byte[] requestAdu) {
+        byte[] reply = new byte[9];
+        System.arraycopy(requestAdu, 0, reply, 0, 4);
+        reply[5] = 3;
+        reply[6] = requestAdu[6];
+        reply[7] = (byte) (requestAdu[7] | 0x80);
+        reply[8] = GATEWAY_TARGET_FAILED;
+        return reply;
+    }
+
+    // --- End of Response Side Section ---
+
+    // Requests queued for the unit and not yet sent.
+    int queuedCount(int unitId) {
+        lock.lock();
+        try {
+            Unit unit = units[unitId & 0xFF];
+            return unit == null ? 0 : unit.queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    int inFlightCount() {
+        return sent.size();
+    }
+
+    @Override
+    void close(IOException cause) {
+        super.close(cause);
+        List<Request> pending = new ArrayList<>(sent.values());
+        lock.lock();
+        try {
+            for (Unit unit : units) {
+                if (unit != null) {
+                    pending.addAll(unit.queue);
+                    unit.queue.clear();
+                }
+            }
+            ready.clear();
+            sent.clear();
+        } finally {
+            lock.unlock();
+        }
+        for (Request request : pending) {
+            request.reply.completeExceptionally(cause);
+            request.dispatched.countDown();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package modbus;
+
+/**
+ * ============================================================================
+ * Modbus Word Order - Layout of Multi-Register Values
+ * ============================================================================
+ * Modbus only defines 16-bit big-endian registers; how a PLC spreads a 32- or
+ * 64-bit value over consecutive registers varies by vendor. Named after the
+ * byte sequence of the 32-bit value 0xAABBCCDD as it appears on the wire:
+ *
+ *   BIG_ENDIAN     ABCD  high word first, high byte first
+ *   WORD_SWAP      CDAB  low word first, high byte first (Delta and most PLCs)
+ *   BYTE_SWAP      BADC  high word first, low byte first
+ *   LITTLE_ENDIAN  DCBA  low word first, low byte first
+ *
+ * 64-bit values follow the same rule over four registers. For strings only
+ * the byte order within each register matters.
+ */
+public enum ModbusWordOrder {
+    BIG_ENDIAN(false, false),
+    WORD_SWAP(true, false),
+    BYTE_SWAP(false, true),
+    LITTLE_ENDIAN(true, true);
+
+    private final boolean swapWords;
+    private final boolean swapBytes;
+
+    ModbusWordOrder(boolean swapWords, boolean swapBytes) {
+        this.swapWords = swapWords;
+        this.swapBytes = swapBytes;
+    }
+
+    boolean swapsBytes() {
+        return swapBytes;
+    }
+
+    // Reads `registers` consecutive wire registers starting at data[offset].
+    long decode(byte[] data, int offset, int registers) {
+        long bits = 0;
+        for (int w = 0; w < registers; w++) {
+            int p = offset + 2 * (swapWords ? registers - 1 - w : w);
+            int high = data[p] & 0xFF;
+            int low = data[p + 1] & 0xFF;
+            bits = (bits << 16) | (swapBytes ? (low << 8) | high : (high << 8) | low);
+        }
+        return bits;
+    }
+
+    // Writes the low 16 * registers bits of value as register values, in wire order.
+    void encode(long bits, int registers, int[] dest, int destOffset) {
+        for (int w = registers - 1; w >= 0; w--) {
+            int word = (int) (bits & 0xFFFF);
+            bits >>>= 16;
+            if (swapBytes) {
+                word = ((word & 0xFF) << 8) | (word >>> 8);
+            }
+            dest[destOffset + (swapWords ? registers - 1 - w : w)] = word;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package modbus;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures read throughput of one ModbusTCP connection at pipeline depths of
+ * 1, 4, 16 and 64 against a ModbusServerSimulator that adds a fixed
+ * per-request delay, standing in for a WAN-linked PLC.
+ *
+ * Usage: java modbus.PipelineBenchmark [delayMillis] [secondsPerRun]
+ */
+public class PipelineBenchmark {
+
+    private static final int[] DEPTHS = { 1, 4, 16, 64 };
+
+    public static void main(String[] args) throws Exception {
+        int delayMillis = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        try (ModbusServerSimulator simulator = new ModbusServerSimulator(0)) {
+            simulator.setLatency(delayMillis, 0);
+            System.out.println("Pipeline benchmark: " + delayMillis + " ms server delay, " + seconds + " s per run");
+            System.out.println("depth      ops/s    speedup");
+            double baseline = 0;
+            for (int depth : DEPTHS) {
+                double opsPerSecond = run(simulator.getPort(), depth, seconds);
+                if (baseline == 0) {
+                    baseline = opsPerSecond;
+                }
+                System.out.printf("%5d %10.0f %9.1fx%n", depth, opsPerSecond, opsPerSecond / baseline);
+            }
+        }
+    }
+
+    private static double run(int port, int depth, int seconds) throws Exception {
+        ModbusTCP client = new ModbusTCP();
+        client.setPipelineDepth(depth);
+        client.connect("127.0.0.1", port);
+
+        AtomicLong completed = new AtomicLong();
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        ExecutorService workers = Executors.newFixedThreadPool(depth);
+        for (int i = 0; i < depth; i++) {
+            workers.submit(() -> {
+                while (System.nanoTime() < end) {
+                    client.readHoldingRegisters(1, "D100", 10);
+                    completed.incrementAndGet();
+                }
+                return null;
+            });
+        }
+        workers.shutdown();
+        workers.awaitTermination(seconds + 30L, TimeUnit.SECONDS);
+        client.disconnect();
+        return completed.get() / (double) seconds;
+    }
+}